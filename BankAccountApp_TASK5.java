@@ -1,5 +1,10 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Scanner;
+import java.util.function.IntConsumer;
 
 class Account {
 
@@ -70,6 +75,11 @@ public class BankAccountApp {
 
     public static void main(String[] args) {
 
+        if (args.length > 0 && args[0].equals("--bench")) {
+            runBenchmarks(args);
+            return;
+        }
+
         System.out.println("=== Create Your Bank Account ===");
         System.out.print("Enter Account Holder Name: ");
         String name = sc.nextLine();
@@ -121,4 +131,77 @@ public class BankAccountApp {
         double amount = Double.parseDouble(sc.nextLine());
         account.withdraw(amount);
     }
+
+    /*
+     * Usage: java BankAccountApp --bench [sizes (accounts), e.g. 1000,100000,1000000]
+     * Account prints its status messages, so they are discarded while measuring.
+     */
+    private static void runBenchmarks(String[] args) {
+        PrintStream console = System.out;
+        Bench.report = console;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            for (int size : Bench.sizes(args, 1)) {
+                Account[] accounts = new Account[size];
+                for (int i = 0; i < size; i++) accounts[i] = new Account("ACC" + i, "Holder " + i, 1_000);
+                java.util.Random random = new java.util.Random(42);
+                int[] picks = new int[1024];
+                for (int i = 0; i < picks.length; i++) picks[i] = random.nextInt(size);
+                Bench.run("deposit", size, 200_000, i -> accounts[picks[i & 1023]].deposit(10));
+                Bench.run("withdraw", size, 200_000, i -> accounts[picks[i & 1023]].withdraw(10));
+            }
+        } finally {
+            System.setOut(console);
+        }
+    }
+
+    // Benchmark harness, kept byte-identical in every app of this repository since each app compiles on its own
+    static final class Bench {
+        private static final com.sun.management.ThreadMXBean THREADS =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        static volatile long sink; // keeps benchmarked results alive
+        static java.io.PrintStream report = System.out; // results go here, so an app may silence System.out
+
+        /*
+         * Warm-up, then throughput, latency percentiles and bytes allocated per op.
+         * Ops that take under about 10us are timed in batches so the clock reads do not
+         * swamp them; their percentiles are of per-batch mean latency, which hides the
+         * tail, and are labelled "batch-mean". Slower ops are timed one at a time ("per-op").
+         */
+        static void run(String name, int size, int ops, IntConsumer op) {
+            int warmup = Math.min(ops, 50_000), half = warmup / 2;
+            for (int i = 0; i < half; i++) op.accept(i);
+            long warmupStart = System.nanoTime();
+            for (int i = half; i < warmup; i++) op.accept(i);
+            long estimate = Math.max(1, (System.nanoTime() - warmupStart) / Math.max(1, warmup - half));
+            int batch = (int) Math.max(1, Math.min(Math.max(1, ops / 100), 10_000 / estimate));
+            int batches = (ops + batch - 1) / batch;
+            double[] latencies = new double[batches];
+            long allocated = THREADS.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            for (int b = 0, i = 0; b < batches; b++) {
+                int end = Math.min(ops, i + batch), count = end - i;
+                long t = System.nanoTime();
+                for (; i < end; i++) op.accept(i);
+                latencies[b] = (double) (System.nanoTime() - t) / count;
+            }
+            long elapsed = System.nanoTime() - start;
+            allocated = THREADS.getCurrentThreadAllocatedBytes() - allocated;
+            Arrays.sort(latencies);
+            report.printf("%-26s size=%-9d %13.0f ops/s  %-10s p50=%8.0fns  p99=%9.0fns  p99.9=%10.0fns  %9.1f B/op%n",
+                    name, size, ops * 1e9 / elapsed, batch > 1 ? "batch-mean" : "per-op", latencies[batches / 2],
+                    latencies[(int) (batches * 0.99)], latencies[(int) (batches * 0.999)], (double) allocated / ops);
+        }
+
+        // Operation count for an O(size) operation, so each benchmark runs in about a second
+        static int opsFor(int size) {
+            return (int) Math.max(200, Math.min(200_000, 200_000_000L / size));
+        }
+
+        // Comma-separated sizes from args[at], or the defaults
+        static int[] sizes(String[] args, int at) {
+            if (args.length <= at) return new int[] { 1_000, 100_000, 1_000_000 };
+            return Arrays.stream(args[at].split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+        }
+    }
 }
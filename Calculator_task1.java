@@ -1,4 +1,33 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntConsumer;
 
 public class Calculator {
 
@@ -26,11 +55,940 @@ public class Calculator {
         return a / b;
     }
 
-    public static void main(String[] args) {
+    // ===== Expression mode =====
+
+    // Parsed expressions keyed by their source text, so repeated formulas skip parsing
+    private static final int EXPRESSION_CACHE_SIZE = 512;
+    private static final Map<String, CompiledExpression> expressionCache =
+            new LinkedHashMap<String, CompiledExpression>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CompiledExpression> eldest) {
+                    return size() > EXPRESSION_CACHE_SIZE;
+                }
+            };
+
+    // Compile an expression (or fetch it from the LRU cache)
+    public static CompiledExpression compile(String expression) {
+        synchronized (expressionCache) {
+            CompiledExpression cached = expressionCache.get(expression);
+            if (cached != null) return cached;
+        }
+        CompiledExpression compiled = new ExpressionParser(expression).parse();
+        synchronized (expressionCache) {
+            expressionCache.put(expression, compiled);
+        }
+        return compiled;
+    }
+
+    // Evaluate an expression with the given variable values
+    public static double evaluate(String expression, Map<String, Double> variables) {
+        return compile(expression).evaluate(variables);
+    }
+
+    /**
+     * An expression compiled to a flat postfix program. Evaluation walks the
+     * instruction array once over a primitive stack, with variables bound by slot.
+     */
+    public static final class CompiledExpression {
+        // Opcodes
+        static final int PUSH_CONST = 0, PUSH_VAR = 1, ADD = 2, SUB = 3, MUL = 4, DIV = 5,
+                MOD = 6, POW = 7, NEG = 8, CALL = 9;
+        private static final Function[] FUNCTIONS = Function.values();
+
+        private final int[] code;        // opcode, operand pairs
+        private final double[] constants;
+        private final String[] variables; // slot index -> variable name
+        private final int maxStack;
+
+        CompiledExpression(int[] code, double[] constants, String[] variables, int maxStack) {
+            this.code = code;
+            this.constants = constants;
+            this.variables = variables;
+            this.maxStack = maxStack;
+        }
+
+        public String[] getVariables() { return variables.clone(); }
+
+        public int slotOf(String name) {
+            for (int i = 0; i < variables.length; i++) if (variables[i].equals(name)) return i;
+            return -1;
+        }
+
+        public double evaluate(Map<String, Double> values) {
+            double[] slots = new double[variables.length];
+            for (int i = 0; i < variables.length; i++) {
+                Double v = values.get(variables[i]);
+                if (v == null) throw new IllegalArgumentException("No value for variable: " + variables[i]);
+                slots[i] = v;
+            }
+            return evaluate(slots);
+        }
+
+        // Values are given in getVariables() order
+        public double evaluate(double... slots) {
+            if (slots.length < variables.length) {
+                throw new IllegalArgumentException("Expected " + variables.length + " variable values");
+            }
+            double[] stack = new double[maxStack];
+            int sp = 0;
+            for (int pc = 0; pc < code.length; pc += 2) {
+                int arg = code[pc + 1];
+                switch (code[pc]) {
+                    case PUSH_CONST: stack[sp++] = constants[arg]; break;
+                    case PUSH_VAR: stack[sp++] = slots[arg]; break;
+                    case ADD: sp--; stack[sp - 1] = stack[sp - 1] + stack[sp]; break;
+                    case SUB: sp--; stack[sp - 1] = stack[sp - 1] - stack[sp]; break;
+                    case MUL: sp--; stack[sp - 1] = stack[sp - 1] * stack[sp]; break;
+                    case DIV:
+                        sp--;
+                        if (stack[sp] == 0) throw new ArithmeticException("Cannot divide by zero");
+                        stack[sp - 1] = stack[sp - 1] / stack[sp];
+                        break;
+                    case MOD: sp--; stack[sp - 1] = stack[sp - 1] % stack[sp]; break;
+                    case POW: sp--; stack[sp - 1] = Math.pow(stack[sp - 1], stack[sp]); break;
+                    case NEG: stack[sp - 1] = -stack[sp - 1]; break;
+                    case CALL: sp = FUNCTIONS[arg].apply(stack, sp); break;
+                    default: throw new IllegalStateException("Bad opcode: " + code[pc]);
+                }
+            }
+            return stack[0];
+        }
+    }
+
+    // Built-in functions available in expressions
+    enum Function {
+        SQRT(1), ABS(1), SIN(1), COS(1), TAN(1), LOG(1), EXP(1), MIN(2), MAX(2), POW(2);
+
+        final int arity;
+
+        Function(int arity) { this.arity = arity; }
+
+        // Pops the arguments, pushes the result and returns the new stack pointer
+        int apply(double[] stack, int sp) {
+            double r;
+            switch (this) {
+                case SQRT: r = Math.sqrt(stack[sp - 1]); break;
+                case ABS: r = Math.abs(stack[sp - 1]); break;
+                case SIN: r = Math.sin(stack[sp - 1]); break;
+                case COS: r = Math.cos(stack[sp - 1]); break;
+                case TAN: r = Math.tan(stack[sp - 1]); break;
+                case LOG: r = Math.log(stack[sp - 1]); break;
+                case EXP: r = Math.exp(stack[sp - 1]); break;
+                case MIN: r = Math.min(stack[sp - 2], stack[sp - 1]); break;
+                case MAX: r = Math.max(stack[sp - 2], stack[sp - 1]); break;
+                default: r = Math.pow(stack[sp - 2], stack[sp - 1]);
+            }
+            sp -= arity;
+            stack[sp++] = r;
+            return sp;
+        }
+    }
+
+    /*
+     * Recursive-descent parser emitting postfix code:
+     *   expr   := term (('+' | '-') term)*
+     *   term   := unary (('*' | '/' | '%') unary)*
+     *   unary  := '-' unary | power
+     *   power  := atom ('^' unary)?
+     *   atom   := number | name | name '(' expr (',' expr)* ')' | '(' expr ')'
+     */
+    static final class ExpressionParser {
+        private final String src;
+        private int pos;
+        private final List<Integer> code = new ArrayList<>();
+        private final List<Double> constants = new ArrayList<>();
+        private final List<String> variables = new ArrayList<>();
+        private int depth, maxDepth;
+
+        ExpressionParser(String src) { this.src = src; }
+
+        CompiledExpression parse() {
+            expr();
+            skipSpaces();
+            if (pos < src.length()) throw error("Unexpected '" + src.charAt(pos) + "'");
+            int[] program = new int[code.size()];
+            for (int i = 0; i < program.length; i++) program[i] = code.get(i);
+            double[] consts = new double[constants.size()];
+            for (int i = 0; i < consts.length; i++) consts[i] = constants.get(i);
+            return new CompiledExpression(program, consts, variables.toArray(new String[0]), Math.max(1, maxDepth));
+        }
+
+        private void expr() {
+            term();
+            while (true) {
+                if (accept('+')) { term(); emit(CompiledExpression.ADD, 0, -1); }
+                else if (accept('-')) { term(); emit(CompiledExpression.SUB, 0, -1); }
+                else return;
+            }
+        }
+
+        private void term() {
+            unary();
+            while (true) {
+                if (accept('*')) { unary(); emit(CompiledExpression.MUL, 0, -1); }
+                else if (accept('/')) { unary(); emit(CompiledExpression.DIV, 0, -1); }
+                else if (accept('%')) { unary(); emit(CompiledExpression.MOD, 0, -1); }
+                else return;
+            }
+        }
+
+        private void unary() {
+            if (accept('-')) { unary(); emit(CompiledExpression.NEG, 0, 0); }
+            else if (accept('+')) unary();
+            else power();
+        }
+
+        private void power() {
+            atom();
+            // right-associative: 2^3^2 == 2^(3^2)
+            if (accept('^')) { unary(); emit(CompiledExpression.POW, 0, -1); }
+        }
+
+        private void atom() {
+            skipSpaces();
+            if (pos >= src.length()) throw error("Unexpected end of expression");
+            char c = src.charAt(pos);
+            if (accept('(')) {
+                expr();
+                expect(')');
+            } else if (Character.isDigit(c) || c == '.') {
+                int start = pos;
+                while (pos < src.length() && (Character.isDigit(src.charAt(pos)) || src.charAt(pos) == '.')) pos++;
+                if (pos < src.length() && (src.charAt(pos) == 'e' || src.charAt(pos) == 'E')) {
+                    pos++;
+                    if (pos < src.length() && (src.charAt(pos) == '+' || src.charAt(pos) == '-')) pos++;
+                    while (pos < src.length() && Character.isDigit(src.charAt(pos))) pos++;
+                }
+                try {
+                    constants.add(Double.parseDouble(src.substring(start, pos)));
+                } catch (NumberFormatException e) {
+                    throw error("Invalid number '" + src.substring(start, pos) + "'");
+                }
+                emit(CompiledExpression.PUSH_CONST, constants.size() - 1, 1);
+            } else if (Character.isLetter(c) || c == '_') {
+                int start = pos;
+                while (pos < src.length() && (Character.isLetterOrDigit(src.charAt(pos)) || src.charAt(pos) == '_')) pos++;
+                String name = src.substring(start, pos);
+                if (accept('(')) call(name);
+                else variable(name);
+            } else {
+                throw error("Unexpected '" + c + "'");
+            }
+        }
+
+        private void call(String name) {
+            Function f;
+            try {
+                f = Function.valueOf(name.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw error("Unknown function '" + name + "'");
+            }
+            int args = 0;
+            if (!accept(')')) {
+                do { expr(); args++; } while (accept(','));
+                expect(')');
+            }
+            if (args != f.arity) throw error(name + " expects " + f.arity + " argument(s)");
+            emit(CompiledExpression.CALL, f.ordinal(), 1 - f.arity);
+        }
+
+        private void variable(String name) {
+            int slot = variables.indexOf(name);
+            if (slot < 0) {
+                variables.add(name);
+                slot = variables.size() - 1;
+            }
+            emit(CompiledExpression.PUSH_VAR, slot, 1);
+        }
+
+        private void emit(int op, int arg, int stackEffect) {
+            code.add(op);
+            code.add(arg);
+            depth += stackEffect;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+
+        private boolean accept(char c) {
+            skipSpaces();
+            if (pos < src.length() && src.charAt(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (!accept(c)) throw error("Expected '" + c + "'");
+        }
+
+        private void skipSpaces() {
+            while (pos < src.length() && Character.isWhitespace(src.charAt(pos))) pos++;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + pos);
+        }
+    }
+
+    // Prompt for an expression and any variables it uses, then print the result
+    private static void evaluateExpression(Scanner sc) {
+        sc.nextLine(); // consume the rest of the menu line
+        System.out.print("Enter expression: ");
+        String expression = sc.nextLine().trim();
+        try {
+            CompiledExpression compiled = compile(expression);
+            String[] names = compiled.getVariables();
+            double[] values = new double[names.length];
+            for (int i = 0; i < names.length; i++) {
+                System.out.print("Enter value for " + names[i] + ": ");
+                values[i] = sc.nextDouble();
+            }
+            System.out.println("Result: " + compiled.evaluate(values));
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+
+    // ===== Column-wise arithmetic =====
+
+    // How a zero divisor is reported by the column-wise divide
+    public enum DivideByZero {
+        NAN,   // element becomes NaN
+        MASK,  // element becomes 0 and its bit is set in the mask
+        COUNT  // element becomes 0 (like divide()); only the count is reported
+    }
+
+    public enum Operation { ADD, SUBTRACT, MULTIPLY, DIVIDE }
+
+    /**
+     * Array and buffer variants of the four operations. The loops are plain
+     * counted loops over primitive arrays with no calls or printing inside, so
+     * the JIT can unroll and auto-vectorize them. Divide returns the number of
+     * zero divisors instead of printing.
+     */
+    public static final class Columns {
+        private Columns() { }
+
+        public static void add(double[] a, double[] b, double[] out) {
+            int n = checkLengths(a.length, b.length, out.length);
+            for (int i = 0; i < n; i++) out[i] = a[i] + b[i];
+        }
+
+        public static void subtract(double[] a, double[] b, double[] out) {
+            int n = checkLengths(a.length, b.length, out.length);
+            for (int i = 0; i < n; i++) out[i] = a[i] - b[i];
+        }
+
+        public static void multiply(double[] a, double[] b, double[] out) {
+            int n = checkLengths(a.length, b.length, out.length);
+            for (int i = 0; i < n; i++) out[i] = a[i] * b[i];
+        }
+
+        public static int divide(double[] a, double[] b, double[] out, DivideByZero policy) {
+            if (policy == DivideByZero.MASK) throw new IllegalArgumentException("MASK policy needs a mask array");
+            return divide(a, b, out, policy, null);
+        }
+
+        // mask is a bitset (bit i of mask[i >> 6]) and is only written for the MASK policy
+        public static int divide(double[] a, double[] b, double[] out, DivideByZero policy, long[] mask) {
+            int n = checkLengths(a.length, b.length, out.length);
+            // Division itself is branch-free; zero divisors are counted in a separate pass
+            for (int i = 0; i < n; i++) out[i] = a[i] / b[i];
+            int zeros = 0;
+            for (int i = 0; i < n; i++) if (b[i] == 0) zeros++;
+            if (zeros == 0) return 0;
+            if (policy == DivideByZero.MASK && (mask == null || mask.length < (n + 63) >>> 6)) {
+                throw new IllegalArgumentException("Mask too small for " + n + " elements");
+            }
+            double replacement = policy == DivideByZero.NAN ? Double.NaN : 0;
+            for (int i = 0; i < n; i++) {
+                if (b[i] == 0) {
+                    out[i] = replacement;
+                    if (policy == DivideByZero.MASK) mask[i >>> 6] |= 1L << i;
+                }
+            }
+            return zeros;
+        }
+
+        public static int apply(Operation op, double[] a, double[] b, double[] out, DivideByZero policy) {
+            switch (op) {
+                case ADD: add(a, b, out); return 0;
+                case SUBTRACT: subtract(a, b, out); return 0;
+                case MULTIPLY: multiply(a, b, out); return 0;
+                default: return divide(a, b, out, policy);
+            }
+        }
+
+        /*
+         * Buffer variant for heap, direct or memory-mapped buffers. Uses absolute
+         * get/put from each buffer's position, without moving positions.
+         */
+        public static int apply(Operation op, DoubleBuffer a, DoubleBuffer b, DoubleBuffer out, DivideByZero policy) {
+            if (policy == DivideByZero.MASK) throw new IllegalArgumentException("MASK policy needs a mask array");
+            int n = checkLengths(a.remaining(), b.remaining(), out.remaining());
+            int pa = a.position(), pb = b.position(), po = out.position();
+            int zeros = 0;
+            switch (op) {
+                case ADD:
+                    for (int i = 0; i < n; i++) out.put(po + i, a.get(pa + i) + b.get(pb + i));
+                    break;
+                case SUBTRACT:
+                    for (int i = 0; i < n; i++) out.put(po + i, a.get(pa + i) - b.get(pb + i));
+                    break;
+                case MULTIPLY:
+                    for (int i = 0; i < n; i++) out.put(po + i, a.get(pa + i) * b.get(pb + i));
+                    break;
+                default:
+                    double replacement = policy == DivideByZero.NAN ? Double.NaN : 0;
+                    for (int i = 0; i < n; i++) {
+                        double d = b.get(pb + i);
+                        if (d == 0) zeros++;
+                        out.put(po + i, d == 0 ? replacement : a.get(pa + i) / d);
+                    }
+            }
+            return zeros;
+        }
+
+        /*
+         * Applies op to two column files of native-order doubles, writing a third.
+         * Files are memory-mapped in windows, so columns larger than the heap
+         * (or than 2 GB) are processed without loading them.
+         */
+        public static long applyFiles(Operation op, Path a, Path b, Path out, DivideByZero policy) throws IOException {
+            final long window = 1L << 27; // 128 MB, a multiple of 8
+            try (FileChannel ca = FileChannel.open(a, StandardOpenOption.READ);
+                 FileChannel cb = FileChannel.open(b, StandardOpenOption.READ);
+                 FileChannel co = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                         StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                long size = ca.size();
+                if (size != cb.size() || size % Double.BYTES != 0) {
+                    throw new IllegalArgumentException("Column files must have the same whole number of doubles");
+                }
+                long zeros = 0;
+                for (long offset = 0; offset < size; offset += window) {
+                    long len = Math.min(window, size - offset);
+                    zeros += apply(op,
+                            asDoubles(ca.map(FileChannel.MapMode.READ_ONLY, offset, len)),
+                            asDoubles(cb.map(FileChannel.MapMode.READ_ONLY, offset, len)),
+                            asDoubles(co.map(FileChannel.MapMode.READ_WRITE, offset, len)),
+                            policy);
+                }
+                return zeros;
+            }
+        }
+
+        private static DoubleBuffer asDoubles(MappedByteBuffer buffer) {
+            return buffer.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        }
+
+        private static int checkLengths(int a, int b, int out) {
+            if (a != b || out < a) {
+                throw new IllegalArgumentException("Column lengths differ: " + a + ", " + b + ", out " + out);
+            }
+            return a;
+        }
+    }
+
+    // ===== Precision modes =====
+
+    /*
+     * Numeric tiers, cheapest first:
+     *   DOUBLE      - IEEE double; promoted when an input has more digits than a
+     *                 double keeps, or the result overflows, underflows to zero or
+     *                 goes subnormal
+     *   SCALED_LONG - fixed-scale decimal held as a long (e.g. cents at scale 2),
+     *                 rounded half-even at the scale
+     *   BIG_DECIMAL - BigDecimal rounded to a MathContext
+     * An operation that overflows its tier, or whose inputs have more decimals than
+     * the scale, is redone in the BIG_DECIMAL tier instead of returning a wrong value.
+     */
+    public enum Tier { DOUBLE, SCALED_LONG, BIG_DECIMAL }
+
+    public static final class NumericEngine {
+        private static final long[] POWERS_OF_TEN = new long[19];
+        static {
+            POWERS_OF_TEN[0] = 1;
+            for (int i = 1; i < POWERS_OF_TEN.length; i++) POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+
+        private final Tier tier;
+        private final int scale;
+        private final MathContext mathContext;
+        private long promotions;
+
+        public NumericEngine(Tier tier, int scale, MathContext mathContext) {
+            if (scale < 0 || scale >= POWERS_OF_TEN.length) {
+                throw new IllegalArgumentException("Scale must be between 0 and " + (POWERS_OF_TEN.length - 1));
+            }
+            this.tier = tier;
+            this.scale = scale;
+            this.mathContext = mathContext;
+        }
+
+        public Tier getTier() { return tier; }
+        public int getScale() { return scale; }
+
+        // Number of operations that had to be redone in the BIG_DECIMAL tier
+        public long getPromotions() { return promotions; }
+
+        // Calculate in the session tier
+        public Number calculate(Operation op, Number a, Number b) {
+            return calculate(tier, op, a, b);
+        }
+
+        // Calculate in an explicitly chosen tier
+        public Number calculate(Tier tier, Operation op, Number a, Number b) {
+            switch (tier) {
+                case DOUBLE: {
+                    double x = a.doubleValue(), y = b.doubleValue();
+                    if (op == Operation.DIVIDE && y == 0) throw new ArithmeticException("Cannot divide by zero");
+                    if (!exactInDouble(a, x) || !exactInDouble(b, y)) return promote(op, toBigDecimal(a), toBigDecimal(b));
+                    double r = applyDouble(op, x, y);
+                    if (Double.isFinite(x) && Double.isFinite(y) && lostRange(op, x, y, r)) {
+                        return promote(op, toBigDecimal(a), toBigDecimal(b));
+                    }
+                    return r;
+                }
+                case SCALED_LONG: {
+                    BigDecimal x = toBigDecimal(a), y = toBigDecimal(b);
+                    try {
+                        long r = applyScaled(op, unscaled(x), unscaled(y), scale);
+                        return BigDecimal.valueOf(r, scale);
+                    } catch (ArithmeticException e) {
+                        if (op == Operation.DIVIDE && y.signum() == 0) throw e;
+                        return promote(op, x, y);
+                    }
+                }
+                default:
+                    return applyDecimal(op, toBigDecimal(a), toBigDecimal(b), mathContext);
+            }
+        }
+
+        // True when d is the value of n: a decimal must be a double's shortest representation
+        private static boolean exactInDouble(Number n, double d) {
+            if (n instanceof BigDecimal) return Double.isFinite(d) && BigDecimal.valueOf(d).compareTo((BigDecimal) n) == 0;
+            if (n instanceof Long) return d != 0x1p63 && (long) d == n.longValue();
+            return true;
+        }
+
+        // Overflow to infinity, or a non-zero result that underflowed to zero or into the subnormal range
+        private static boolean lostRange(Operation op, double x, double y, double r) {
+            if (Double.isInfinite(r)) return true;
+            if (r == 0) return (op == Operation.MULTIPLY && x != 0 && y != 0) || (op == Operation.DIVIDE && x != 0);
+            return Math.abs(r) < Double.MIN_NORMAL;
+        }
+
+        private BigDecimal promote(Operation op, BigDecimal a, BigDecimal b) {
+            promotions++;
+            return applyDecimal(op, a, b, mathContext);
+        }
+
+        // Unscaled long at this engine's scale; throws if the value does not fit exactly
+        private long unscaled(BigDecimal v) {
+            return v.setScale(scale, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+        }
+
+        private static BigDecimal toBigDecimal(Number n) {
+            if (n instanceof BigDecimal) return (BigDecimal) n;
+            if (n instanceof Long || n instanceof Integer || n instanceof Short || n instanceof Byte) {
+                return BigDecimal.valueOf(n.longValue());
+            }
+            // Shortest decimal representation, so 0.1 stays 0.1
+            return BigDecimal.valueOf(n.doubleValue());
+        }
+
+        static double applyDouble(Operation op, double a, double b) {
+            switch (op) {
+                case ADD: return a + b;
+                case SUBTRACT: return a - b;
+                case MULTIPLY: return a * b;
+                default: return a / b;
+            }
+        }
+
+        /*
+         * Fixed-scale arithmetic on unscaled longs sharing one scale. Multiply and
+         * divide round half-even at the scale, like money. Throws ArithmeticException
+         * on overflow; allocation-free, so it can be called in bulk loops.
+         */
+        static long applyScaled(Operation op, long a, long b, int scale) {
+            long pow = POWERS_OF_TEN[scale];
+            switch (op) {
+                case ADD: return Math.addExact(a, b);
+                case SUBTRACT: return Math.subtractExact(a, b);
+                case MULTIPLY: {
+                    // a * b has scale 2 * scale; bring it back by dividing by 10^scale
+                    long lo = a * b;
+                    if (Math.multiplyHigh(a, b) != (lo >> 63)) throw new ArithmeticException("Overflow");
+                    return roundHalfEven(lo / pow, lo % pow, pow);
+                }
+                default: {
+                    if (b == 0) throw new ArithmeticException("Cannot divide by zero");
+                    if (b == Long.MIN_VALUE) throw new ArithmeticException("Overflow");
+                    long num = a * pow;
+                    if (Math.multiplyHigh(a, pow) != (num >> 63)) throw new ArithmeticException("Overflow");
+                    return roundHalfEven(num / b, num % b, b);
+                }
+            }
+        }
+
+        // Rounds the truncated quotient q given remainder r of a division by d
+        private static long roundHalfEven(long q, long r, long d) {
+            if (r == 0) return q;
+            long absR = Math.abs(r), absD = Math.abs(d);
+            long half = absD - absR; // compare 2|r| with |d| without overflowing
+            if (absR < half || (absR == half && (q & 1) == 0)) return q;
+            // the true quotient's sign is the sign of r * d
+            return (r < 0) == (d < 0) ? q + 1 : q - 1;
+        }
+
+        static BigDecimal applyDecimal(Operation op, BigDecimal a, BigDecimal b, MathContext mc) {
+            switch (op) {
+                case ADD: return a.add(b, mc);
+                case SUBTRACT: return a.subtract(b, mc);
+                case MULTIPLY: return a.multiply(b, mc);
+                default:
+                    if (b.signum() == 0) throw new ArithmeticException("Cannot divide by zero");
+                    return a.divide(b, mc);
+            }
+        }
+    }
+
+    /*
+     * Usage: java Calculator_task1.java --precision-bench [operations]
+     * Prints rough single-thread throughput for each tier on the same inputs.
+     */
+    private static void runPrecisionBenchmark(String[] args) {
+        int n = args.length > 1 ? Integer.parseInt(args[1]) : 5_000_000;
+        int scale = 2;
+        double[] xd = new double[1024], yd = new double[1024];
+        long[] xl = new long[1024], yl = new long[1024];
+        BigDecimal[] xb = new BigDecimal[1024], yb = new BigDecimal[1024];
+        java.util.Random random = new java.util.Random(42);
+        for (int i = 0; i < xd.length; i++) {
+            xl[i] = random.nextInt(10_000_000) + 1;
+            yl[i] = random.nextInt(10_000) + 1;
+            xb[i] = BigDecimal.valueOf(xl[i], scale);
+            yb[i] = BigDecimal.valueOf(yl[i], scale);
+            xd[i] = xb[i].doubleValue();
+            yd[i] = yb[i].doubleValue();
+        }
+        MathContext mc = MathContext.DECIMAL64;
+        for (Operation op : Operation.values()) {
+            for (int round = 0; round < 2; round++) { // first round is warm-up
+                double sinkD = 0;
+                long sinkL = 0, promoted = 0;
+                int sinkB = 0;
+
+                long t0 = System.nanoTime();
+                for (int i = 0; i < n; i++) sinkD += NumericEngine.applyDouble(op, xd[i & 1023], yd[i & 1023]);
+                long t1 = System.nanoTime();
+                for (int i = 0; i < n; i++) {
+                    try {
+                        sinkL += NumericEngine.applyScaled(op, xl[i & 1023], yl[i & 1023], scale);
+                    } catch (ArithmeticException e) {
+                        promoted++;
+                    }
+                }
+                long t2 = System.nanoTime();
+                for (int i = 0; i < n; i++) sinkB += NumericEngine.applyDecimal(op, xb[i & 1023], yb[i & 1023], mc).signum();
+                long t3 = System.nanoTime();
+
+                if (round == 1) {
+                    System.out.printf("%-9s double %8.1f Mops/s | scaled long %8.1f Mops/s (%d%% promoted) | BigDecimal %8.1f Mops/s  [%s]%n",
+                            op, n * 1e3 / (t1 - t0), n * 1e3 / (t2 - t1), promoted * 100 / n, n * 1e3 / (t3 - t2),
+                            (sinkD + sinkL + sinkB) == 0 ? "-" : "ok");
+                }
+            }
+        }
+    }
+
+    // ===== Batch mode =====
+
+    private static final int BATCH_CHUNK_LINES = 8192;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /*
+     * Usage: java Calculator_task1.java --batch <input|-> [output|-] [--parallel]
+     * Each input line is either "op a b" (op = add/subtract/multiply/divide or + - * /)
+     * or a constant expression. One result (or "Error: ...") is written per line.
+     */
+    private static void runBatch(String[] args) throws IOException {
+        String input = args.length > 1 ? args[1] : "-";
+        String output = "-";
+        boolean parallel = false;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("--parallel")) parallel = true;
+            else output = args[i];
+        }
+
+        try (BufferedReader in = input.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), BUFFER_SIZE)
+                : Files.newBufferedReader(Paths.get(input), StandardCharsets.UTF_8);
+             Writer out = output.equals("-")
+                ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), BUFFER_SIZE)
+                : Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8)) {
+            if (parallel) evaluateParallel(in, out);
+            else evaluateSequential(in, out);
+        }
+    }
+
+    // Streams line by line; only the output buffer is held in memory
+    private static void evaluateSequential(BufferedReader in, Writer out) throws IOException {
+        StringBuilder sb = new StringBuilder(64);
+        String line;
+        while ((line = in.readLine()) != null) {
+            sb.setLength(0);
+            evaluateLine(line, sb);
+            sb.append('\n');
+            out.append(sb);
+        }
+    }
+
+    /*
+     * Reads fixed-size chunks and evaluates them on the fork/join pool. At most a
+     * bounded window of chunks is in flight and they are written back in submission
+     * order, so output order matches input order and memory stays constant.
+     */
+    private static void evaluateParallel(BufferedReader in, Writer out) throws IOException {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int window = Math.max(2, pool.getParallelism() * 2);
+        ArrayDeque<ForkJoinTask<StringBuilder>> inFlight = new ArrayDeque<>();
+        while (true) {
+            List<String> chunk = new ArrayList<>(BATCH_CHUNK_LINES);
+            String line;
+            while (chunk.size() < BATCH_CHUNK_LINES && (line = in.readLine()) != null) chunk.add(line);
+            if (chunk.isEmpty()) break;
+            inFlight.add(pool.submit(() -> {
+                StringBuilder sb = new StringBuilder(chunk.size() * 24);
+                for (String l : chunk) {
+                    evaluateLine(l, sb);
+                    sb.append('\n');
+                }
+                return sb;
+            }));
+            if (inFlight.size() >= window) out.append(join(inFlight.poll()));
+        }
+        while (!inFlight.isEmpty()) out.append(join(inFlight.poll()));
+    }
+
+    private static StringBuilder join(ForkJoinTask<StringBuilder> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while evaluating batch", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Batch evaluation failed", e.getCause());
+        }
+    }
+
+    /*
+     * Evaluate a single batch line and append the result (without newline).
+     * Batch lines bypass the shared expression cache: a bulk file would evict the
+     * interactive working set and serialize the parallel workers on its lock.
+     */
+    static void evaluateLine(String line, StringBuilder out) {
+        String trimmed = line.trim();
+        if (trimmed.isEmpty()) return;
+        try {
+            if (!evaluateOperation(trimmed, out)) {
+                out.append(new ExpressionParser(trimmed).parse().evaluate());
+            }
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            out.append("Error: ").append(e.getMessage());
+        }
+    }
+
+    // Handles the "op a b" form; returns false unless exactly two numeric operands follow the op
+    private static boolean evaluateOperation(String trimmed, StringBuilder out) {
+        int sp1 = trimmed.indexOf(' ');
+        if (sp1 <= 0) return false;
+        int op = operationOf(trimmed.substring(0, sp1));
+        if (op < 0) return false;
+        String rest = trimmed.substring(sp1 + 1).trim();
+        int sp2 = rest.indexOf(' ');
+        if (sp2 < 0) return false;
+        String second = rest.substring(sp2 + 1).trim();
+        if (second.indexOf(' ') >= 0) return false;
+        double a, b;
+        try {
+            a = Double.parseDouble(rest.substring(0, sp2));
+            b = Double.parseDouble(second);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        out.append(apply(op, a, b));
+        return true;
+    }
+
+    // Maps an operation name or symbol to its menu number, or -1
+    private static int operationOf(String token) {
+        switch (token.toLowerCase()) {
+            case "add": case "+": return 1;
+            case "subtract": case "-": return 2;
+            case "multiply": case "*": return 3;
+            case "divide": case "/": return 4;
+            default: return -1;
+        }
+    }
+
+    private static double apply(int op, double a, double b) {
+        switch (op) {
+            case 1: return add(a, b);
+            case 2: return subtract(a, b);
+            case 3: return multiply(a, b);
+            default:
+                if (b == 0) throw new ArithmeticException("Cannot divide by zero");
+                return a / b;
+        }
+    }
+
+    // ===== Benchmarks =====
+
+    /*
+     * Usage: java Calculator_task1.java --bench [sizes, e.g. 1000,100000,10000000]
+     * Scalar operations run once; column operations run at each size.
+     */
+    private static void runBenchmarks(String[] args) {
+        double[] xs = new double[1024], ys = new double[1024];
+        java.util.Random random = new java.util.Random(42);
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = random.nextDouble() * 1000;
+            ys[i] = random.nextDouble() * 1000 + 1;
+        }
+        Bench.run("add", 1, 1_000_000, i -> Bench.sink += (long) add(xs[i & 1023], ys[i & 1023]));
+        Bench.run("subtract", 1, 1_000_000, i -> Bench.sink += (long) subtract(xs[i & 1023], ys[i & 1023]));
+        Bench.run("multiply", 1, 1_000_000, i -> Bench.sink += (long) multiply(xs[i & 1023], ys[i & 1023]));
+        Bench.run("divide", 1, 1_000_000, i -> Bench.sink += (long) divide(xs[i & 1023], ys[i & 1023]));
+        CompiledExpression formula = compile("(x + y) * 1.2 - max(x, y) / 3");
+        Bench.run("expression (compiled)", 1, 1_000_000, i -> Bench.sink += (long) formula.evaluate(xs[i & 1023], ys[i & 1023]));
+        Bench.run("expression (cache lookup)", 1, 1_000_000,
+                i -> Bench.sink += (long) compile("(x + y) * 1.2 - max(x, y) / 3").evaluate(xs[i & 1023], ys[i & 1023]));
+
+        for (int size : Bench.sizes(args, 1)) {
+            double[] a = new double[size], b = new double[size], out = new double[size];
+            for (int i = 0; i < size; i++) {
+                a[i] = xs[i & 1023];
+                b[i] = ys[i & 1023];
+            }
+            int ops = Math.max(20, Bench.opsFor(size) / 10);
+            Bench.run("column add", size, ops, i -> Columns.add(a, b, out));
+            Bench.run("column divide", size, ops, i -> Bench.sink += Columns.divide(a, b, out, DivideByZero.NAN));
+        }
+    }
+
+    // Benchmark harness, kept byte-identical in every app of this repository since each app compiles on its own
+    static final class Bench {
+        private static final com.sun.management.ThreadMXBean THREADS =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        static volatile long sink; // keeps benchmarked results alive
+        static java.io.PrintStream report = System.out; // results go here, so an app may silence System.out
+
+        /*
+         * Warm-up, then throughput, latency percentiles and bytes allocated per op.
+         * Ops that take under about 10us are timed in batches so the clock reads do not
+         * swamp them; their percentiles are of per-batch mean latency, which hides the
+         * tail, and are labelled "batch-mean". Slower ops are timed one at a time ("per-op").
+         */
+        static void run(String name, int size, int ops, IntConsumer op) {
+            int warmup = Math.min(ops, 50_000), half = warmup / 2;
+            for (int i = 0; i < half; i++) op.accept(i);
+            long warmupStart = System.nanoTime();
+            for (int i = half; i < warmup; i++) op.accept(i);
+            long estimate = Math.max(1, (System.nanoTime() - warmupStart) / Math.max(1, warmup - half));
+            int batch = (int) Math.max(1, Math.min(Math.max(1, ops / 100), 10_000 / estimate));
+            int batches = (ops + batch - 1) / batch;
+            double[] latencies = new double[batches];
+            long allocated = THREADS.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            for (int b = 0, i = 0; b < batches; b++) {
+                int end = Math.min(ops, i + batch), count = end - i;
+                long t = System.nanoTime();
+                for (; i < end; i++) op.accept(i);
+                latencies[b] = (double) (System.nanoTime() - t) / count;
+            }
+            long elapsed = System.nanoTime() - start;
+            allocated = THREADS.getCurrentThreadAllocatedBytes() - allocated;
+            Arrays.sort(latencies);
+            report.printf("%-26s size=%-9d %13.0f ops/s  %-10s p50=%8.0fns  p99=%9.0fns  p99.9=%10.0fns  %9.1f B/op%n",
+                    name, size, ops * 1e9 / elapsed, batch > 1 ? "batch-mean" : "per-op", latencies[batches / 2],
+                    latencies[(int) (batches * 0.99)], latencies[(int) (batches * 0.999)], (double) allocated / ops);
+        }
+
+        // Operation count for an O(size) operation, so each benchmark runs in about a second
+        static int opsFor(int size) {
+            return (int) Math.max(200, Math.min(200_000, 200_000_000L / size));
+        }
+
+        // Comma-separated sizes from args[at], or the defaults
+        static int[] sizes(String[] args, int at) {
+            if (args.length <= at) return new int[] { 1_000, 100_000, 1_000_000 };
+            return Arrays.stream(args[at].split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+        }
+    }
+
+    private static NumericEngine choosePrecision(Scanner sc, NumericEngine current) {
+        System.out.println("1. Double (fast)");
+        System.out.println("2. Fixed scale decimal");
+        System.out.println("3. Arbitrary precision (34 digits)");
+        System.out.print("Enter your choice: ");
+        switch (sc.nextInt()) {
+            case 1: return new NumericEngine(Tier.DOUBLE, current.getScale(), MathContext.DECIMAL128);
+            case 2:
+                System.out.print("Enter number of decimal places (0-18): ");
+                try {
+                    return new NumericEngine(Tier.SCALED_LONG, sc.nextInt(), MathContext.DECIMAL128);
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Error: " + e.getMessage());
+                    return current;
+                }
+            case 3: return new NumericEngine(Tier.BIG_DECIMAL, current.getScale(), MathContext.DECIMAL128);
+            default:
+                System.out.println("Invalid choice. Precision unchanged.");
+                return current;
+        }
+    }
+
+    // Numbers are read as text so no precision is lost before the calculation
+    private static void calculatePrecise(Scanner sc, NumericEngine engine, Operation op) {
+        try {
+            System.out.print("Enter first number: ");
+            BigDecimal a = new BigDecimal(sc.next());
+            System.out.print("Enter second number: ");
+            BigDecimal b = new BigDecimal(sc.next());
+            long promotionsBefore = engine.getPromotions();
+            Number result = engine.calculate(op, a, b);
+            System.out.println("Result: " + (result instanceof BigDecimal ? ((BigDecimal) result).toPlainString() : result));
+            if (engine.getPromotions() > promotionsBefore) {
+                System.out.println("(calculated with arbitrary precision to avoid overflow or rounding)");
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Error: Invalid number.");
+        } catch (ArithmeticException e) {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        if (args.length > 0 && args[0].equals("--batch")) {
+            runBatch(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--bench")) {
+            runBenchmarks(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--precision-bench")) {
+            runPrecisionBenchmark(args);
+            return;
+        }
 
         Scanner sc = new Scanner(System.in);
         int choice;
         double num1, num2;
+        NumericEngine engine = new NumericEngine(Tier.DOUBLE, 2, MathContext.DECIMAL128);
 
         do {
             System.out.println("\n=== JAVA CONSOLE CALCULATOR ===");
@@ -38,15 +996,32 @@ public class Calculator {
             System.out.println("2. Subtraction");
             System.out.println("3. Multiplication");
             System.out.println("4. Division");
-            System.out.println("5. Exit");
+            System.out.println("5. Evaluate Expression");
+            System.out.println("6. Precision Mode (current: " + engine.getTier() + ")");
+            System.out.println("7. Exit");
             System.out.print("Enter your choice: ");
             choice = sc.nextInt();
 
-            if (choice == 5) {
+            if (choice == 7) {
                 System.out.println("Exiting Calculator... Goodbye!");
                 break;
             }
 
+            if (choice == 5) {
+                evaluateExpression(sc);
+                continue;
+            }
+
+            if (choice == 6) {
+                engine = choosePrecision(sc, engine);
+                continue;
+            }
+
+            if (engine.getTier() != Tier.DOUBLE && choice >= 1 && choice <= 4) {
+                calculatePrecise(sc, engine, Operation.values()[choice - 1]);
+                continue;
+            }
+
             System.out.print("Enter first number: ");
             num1 = sc.nextDouble();
 
@@ -9,7 +9,16 @@ Files:
  - Book.java
  - User.java
  - Library.java
+ - CatalogStore.java
+ - BookSearchIndex.java
+ - Loan.java
+ - LoanLedger.java
+ - LibraryJournal.java  (saves changes to library.journal / library.snapshot in the working folder)
+ - LibraryServer.java  (network front end: java LibraryApp --serve [port])
  - LibraryApp.java  (contains main())
+ - LibraryBenchmark.java  (optional: java LibraryBenchmark 1000,100000,1000000
+                           or java LibraryBenchmark --stress for concurrent borrow/return)
+ - LibraryLoadGenerator.java  (optional: java LibraryLoadGenerator [clients] [seconds] [pipeline] [host:port])
 
 How to compile (terminal):
   javac *.java
@@ -21,188 +30,2205 @@ How to run in VS Code:
  - Use Run|Run Without Debugging or use the terminal to compile + run.
 
 Features implemented:
- - Add / Remove / Search books
+ - Add / Remove / Search books (title, author, ranked keywords) through an incremental index
  - Register / Remove users
- - Borrow / Return books with simple availability checks
+ - Borrow / Return books with simple availability checks; safe from many threads,
+   with all-or-nothing checkout of several books
+ - Loans with due dates: who holds a book, overdue and due-today queries
  - Lists: all books, available books, borrowed books, users
- - Simple command-line menu for demonstration
+ - Compact column store for the catalog (packed ISBNs, author dictionary, title byte arena)
+   with Book objects created on demand as views
+ - Changes are saved as they happen and restored on the next start
+ - Simple command-line menu for demonstration, or a line-protocol server for many kiosks
  - Uses OOP: encapsulation, single-responsibility, basic exception handling
 
 */
 
 // -------------------- Book.java --------------------
+/*
+ * A book is either new (created with the constructor and holding its own fields,
+ * e.g. to pass to Library.addBook) or a lightweight view of a catalog slot handed
+ * out by Library, which reads and writes the library's compact store. Views are
+ * cheap to create and compare equal for the same book. A view also records its
+ * slot's generation, so once the book is removed (and its slot possibly reused by
+ * another book) every access through the view throws IllegalStateException.
+ */
 public class Book {
+    private final Library library; // owning library for a catalog view, null for a new book
+    private final int slot;        // catalog slot of a view, -1 for a new book
+    private final int generation;  // slot generation the view was made for
     private final String isbn;
     private String title;
     private String author;
     private boolean isBorrowed;
 
     public Book(String isbn, String title, String author) {
+        this.library = null;
+        this.slot = -1;
+        this.generation = 0;
         this.isbn = isbn;
         this.title = title;
         this.author = author;
-        this.isBorrowed = false;
     }
 
-    public String getIsbn() { return isbn; }
-    public String getTitle() { return title; }
-    public void setTitle(String title) { this.title = title; }
-    public String getAuthor() { return author; }
-    public void setAuthor(String author) { this.author = author; }
-    public boolean isBorrowed() { return isBorrowed; }
+    Book(Library library, int slot, int generation) {
+        this.library = library;
+        this.slot = slot;
+        this.generation = generation;
+        this.isbn = null;
+    }
+
+    public String getIsbn() { return library == null ? isbn : library.isbnAt(getSlot()); }
+    public String getTitle() { return library == null ? title : library.titleAt(getSlot()); }
+    public void setTitle(String title) {
+        if (library == null) this.title = title;
+        else library.updateBook(getSlot(), title, library.authorAt(slot));
+    }
+    public String getAuthor() { return library == null ? author : library.authorAt(getSlot()); }
+    public void setAuthor(String author) {
+        if (library == null) this.author = author;
+        else library.updateBook(getSlot(), library.titleAt(slot), author);
+    }
+
+    // Slot of a view, checked against removal of its book
+    int getSlot() {
+        if (library != null) library.checkView(slot, generation);
+        return slot;
+    }
+
+    public boolean isBorrowed() { return library == null ? isBorrowed : library.isBorrowedAt(getSlot()); }
+
+    // Loan state changes go through Library.borrowBook/returnBook, which also
+    // lock, journal and record the loan
+    void borrow() {
+        if (library != null) library.markBorrowed(getSlot());
+        else if (isBorrowed) throw new IllegalStateException("Book already borrowed");
+        else isBorrowed = true;
+    }
+
+    void returned() {
+        if (library != null) library.markReturned(getSlot());
+        else if (!isBorrowed) throw new IllegalStateException("Book is not borrowed");
+        else isBorrowed = false;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Book)) return false;
+        Book other = (Book) o;
+        return library != null && library == other.library && slot == other.slot && generation == other.generation;
+    }
+
+    @Override
+    public int hashCode() {
+        return library == null ? System.identityHashCode(this) : slot * 31 + generation;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(64);
+        if (library != null) {
+            library.appendBook(getSlot(), sb);
+        } else {
+            sb.append('[').append(isbn).append("] ").append(title).append(" by ").append(author)
+                    .append(isBorrowed ? " (borrowed)" : " (available)");
+        }
+        return sb.toString();
+    }
+}
+
+// -------------------- User.java --------------------
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+public class User {
+    private final String userId;
+    private String name;
+    private final Set<String> borrowedIsbns; // ISBNs of borrowed books, in borrowing order
+
+    public User(String userId, String name) {
+        this.userId = userId;
+        this.name = name;
+        this.borrowedIsbns = new LinkedHashSet<>();
+    }
+
+    public String getUserId() { return userId; }
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+    public Set<String> getBorrowedIsbns() { return Collections.unmodifiableSet(borrowedIsbns); }
+
+    // Maintained by Library together with its loan ledger
+    void borrowBook(String isbn) {
+        borrowedIsbns.add(isbn);
+    }
+
+    boolean returnBook(String isbn) {
+        return borrowedIsbns.remove(isbn);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (%s) - borrowed: %d", name, userId, borrowedIsbns.size());
+    }
+}
+
+// -------------------- Library.java --------------------
+import java.io.IOException;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class Library {
+    // Books live in a compact column store addressed by slot; Book objects are views made on demand
+    private final CatalogStore catalog = new CatalogStore();
+    private final Map<String, User> users = new LinkedHashMap<>(); // keyed by id, in registration order
+    private final BookSearchIndex searchIndex = new BookSearchIndex(this::bookAt, catalog::titleContains, catalog::authorContains);
+    private boolean indexingDeferred;        // during recovery the search index is built afterwards
+    private volatile Thread indexBuilder;    // set while that build runs in the background
+
+    // Availability is one bit per slot, flipped on borrow/return
+    private final SlotBits availableBits = new SlotBits();
+    private final SlotBits borrowedBits = new SlotBits();
+    private final StripedLocks locks = new StripedLocks(256);
+
+    // Who holds each borrowed book and when it is due
+    private final LoanLedger ledger = new LoanLedger();
+    private final Clock clock;
+    private final int loanDays;
+    private LibraryJournal journal; // records every change once persistence is attached
+
+    public Library() {
+        this(Clock.systemDefaultZone(), 14);
+    }
+
+    public Library(Clock clock, int loanDays) {
+        if (loanDays <= 0) throw new IllegalArgumentException("Loan period must be positive");
+        this.clock = clock;
+        this.loanDays = loanDays;
+    }
+
+    // Book operations; the book passed in is copied into the catalog
+    public void addBook(Book b) {
+        if (catalog.find(b.getIsbn()) >= 0) {
+            throw new IllegalArgumentException("A book with same ISBN already exists: " + b.getIsbn());
+        }
+        // Join a background build first, it must not read slots while they change
+        BookSearchIndex index = indexingDeferred ? null : index();
+        if (journal != null) journal.logAddBook(b);
+        int slot = catalog.add(b.getIsbn(), b.getTitle(), b.getAuthor());
+        if (b.isBorrowed()) borrowedBits.set(slot);
+        else availableBits.set(slot);
+        if (index != null) index.add(bookAt(slot));
+    }
+
+    public boolean removeBook(String isbn) {
+        Book b = findBookByIsbn(isbn);
+        if (b == null) return false;
+        if (b.isBorrowed()) throw new IllegalStateException("Cannot remove a borrowed book");
+        BookSearchIndex index = indexingDeferred ? null : index();
+        if (journal != null) journal.logRemoveBook(isbn);
+        if (index != null) index.remove(b);
+        availableBits.clear(b.getSlot());
+        borrowedBits.clear(b.getSlot());
+        catalog.remove(b.getSlot());
+        return true;
+    }
+
+    // Called through a Book view when its title or author changes
+    void updateBook(int slot, String title, String author) {
+        Book b = bookAt(slot);
+        BookSearchIndex index = indexingDeferred ? null : index();
+        if (journal != null) journal.logUpdateBook(new Book(b.getIsbn(), title, author));
+        catalog.setTitle(slot, title);
+        catalog.setAuthor(slot, author);
+        if (index != null) index.update(b);
+    }
+
+    // Accessors for Book views
+    Book bookAt(int slot) { return new Book(this, slot, catalog.generation(slot)); }
+    String isbnAt(int slot) { return catalog.isbn(slot); }
+    String titleAt(int slot) { return catalog.title(slot); }
+    String authorAt(int slot) { return catalog.author(slot); }
+    boolean isBorrowedAt(int slot) { return borrowedBits.get(slot); }
+
+    void checkView(int slot, int generation) {
+        if (catalog.generation(slot) != generation) {
+            throw new IllegalStateException("Book was removed from the library");
+        }
+    }
+
+    void appendBook(int slot, StringBuilder out) {
+        catalog.appendLine(slot, borrowedBits.get(slot), out);
+    }
+
+    // CAS on the availability bits; the borrowed bit is the book's state
+    void markBorrowed(int slot) {
+        if (!borrowedBits.set(slot)) throw new IllegalStateException("Book already borrowed");
+        availableBits.clear(slot);
+    }
+
+    void markReturned(int slot) {
+        if (!borrowedBits.clear(slot)) throw new IllegalStateException("Book is not borrowed");
+        availableBits.set(slot);
+    }
+
+    /*
+     * Recovery adds the whole catalog at once, so indexing is deferred until it is
+     * done and then runs on a background thread. Lookups, counts and loans work at
+     * once. The first search waits for the build to finish, and so does every
+     * catalog change before it touches the catalog, since the builder reads it
+     * without a lock.
+     */
+    void deferIndexing() {
+        indexingDeferred = true;
+    }
+
+    void resumeIndexing() {
+        if (!indexingDeferred) return;
+        indexingDeferred = false;
+        int slotLimit = catalog.slotLimit();
+        Thread builder = new Thread(() -> {
+            for (int slot = 0; slot < slotLimit; slot++) {
+                if (catalog.isLive(slot)) searchIndex.add(bookAt(slot));
+            }
+        }, "search-index-build");
+        builder.setDaemon(true);
+        indexBuilder = builder;
+        builder.start();
+    }
+
+    private BookSearchIndex index() {
+        Thread builder = indexBuilder;
+        if (builder != null) {
+            boolean interrupted = false;
+            while (builder.isAlive()) {
+                try {
+                    builder.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            indexBuilder = null;
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+        return searchIndex;
+    }
+
+    // Called once by LibraryJournal after recovery
+    void attachJournal(LibraryJournal journal) {
+        this.journal = journal;
+    }
+
+    public Book findBookByIsbn(String isbn) {
+        int slot = catalog.find(isbn);
+        return slot < 0 ? null : bookAt(slot);
+    }
+
+    // Search (through the incremental title/author index)
+    public List<Book> searchByTitle(String q) {
+        return index().titleContains(q, 0, Integer.MAX_VALUE);
+    }
+
+    public List<Book> searchByTitle(String q, int offset, int limit) {
+        return index().titleContains(q, offset, limit);
+    }
+
+    public List<Book> searchByAuthor(String q, int offset, int limit) {
+        return index().authorContains(q, offset, limit);
+    }
+
+    public List<Book> searchByWordPrefix(String prefix, int offset, int limit) {
+        return index().wordPrefix(prefix, offset, limit);
+    }
+
+    // Ranked keyword search over titles and authors
+    public List<Book> search(String query, int offset, int limit) {
+        return index().search(query, offset, limit);
+    }
+
+    public List<Book> getAllBooks() { return new ArrayList<>(allBooks()); }
+    public List<Book> getAvailableBooks() { return toList(availableBooks(0, Integer.MAX_VALUE)); }
+    public List<Book> getBorrowedBooks() { return toList(borrowedBooks(0, Integer.MAX_VALUE)); }
+
+    // Read-only live view of the catalog in slot order, without copying
+    public Collection<Book> allBooks() {
+        return new AbstractCollection<Book>() {
+            @Override
+            public Iterator<Book> iterator() {
+                return new Iterator<Book>() {
+                    private int slot = nextLive(0);
+
+                    @Override
+                    public boolean hasNext() { return slot >= 0; }
+
+                    @Override
+                    public Book next() {
+                        if (slot < 0) throw new NoSuchElementException();
+                        Book b = bookAt(slot);
+                        slot = nextLive(slot + 1);
+                        return b;
+                    }
+                };
+            }
+
+            @Override
+            public int size() { return catalog.size(); }
+        };
+    }
+
+    private int nextLive(int from) {
+        for (int slot = from; slot < catalog.slotLimit(); slot++) {
+            if (catalog.isLive(slot)) return slot;
+        }
+        return -1;
+    }
+
+    // Writes one line per book straight from the store, without Book objects or formatting
+    public void printCatalog(Appendable out) throws IOException {
+        StringBuilder sb = new StringBuilder(1 << 16);
+        for (int slot = nextLive(0); slot >= 0; slot = nextLive(slot + 1)) {
+            appendBook(slot, sb);
+            sb.append(System.lineSeparator());
+            if (sb.length() >= 1 << 15) {
+                out.append(sb);
+                sb.setLength(0);
+            }
+        }
+        out.append(sb);
+    }
+
+    // Approximate heap held by the catalog columns
+    public long catalogFootprint() { return catalog.footprint(); }
+
+    // O(1) counts
+    public int countBooks() { return catalog.size(); }
+    public int countAvailable() { return availableBits.count(); }
+    public int countBorrowed() { return borrowedBits.count(); }
+
+    // Zero-copy pages: iterate the availability bits from the offset-th set bit
+    public Iterable<Book> availableBooks(int offset, int limit) { return page(availableBits, offset, limit); }
+    public Iterable<Book> borrowedBooks(int offset, int limit) { return page(borrowedBits, offset, limit); }
+
+    private Iterable<Book> page(SlotBits bits, int offset, int limit) {
+        return () -> new Iterator<Book>() {
+            private int slot = bits.select(Math.max(0, offset));
+            private int remaining = limit;
+
+            @Override
+            public boolean hasNext() { return slot >= 0 && remaining > 0; }
+
+            @Override
+            public Book next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                Book b = bookAt(slot);
+                slot = bits.nextSetBit(slot + 1);
+                remaining--;
+                return b;
+            }
+        };
+    }
+
+    private static List<Book> toList(Iterable<Book> books) {
+        List<Book> list = new ArrayList<>();
+        for (Book b : books) list.add(b);
+        return list;
+    }
+
+    /*
+     * Growable bitset with a maintained population count and popcount-based select.
+     * Bits are flipped with CAS so concurrent borrow/return can share words; the
+     * arrays only grow while adding books, which never runs concurrently with them.
+     * A count per block of 64 words lets select skip 4096 bits at a time.
+     */
+    private static final class SlotBits {
+        private static final int BLOCK_SHIFT = 6; // words per block = 1 << BLOCK_SHIFT
+
+        private volatile AtomicLongArray words = new AtomicLongArray(4);
+        private volatile AtomicIntegerArray blockCounts = new AtomicIntegerArray(1);
+        private final AtomicInteger count = new AtomicInteger();
+
+        int count() { return count.get(); }
+
+        boolean get(int bit) {
+            AtomicLongArray a = words;
+            int w = bit >>> 6;
+            return w < a.length() && (a.get(w) & (1L << bit)) != 0;
+        }
+
+        // Returns false if the bit was already set
+        boolean set(int bit) {
+            int w = bit >>> 6;
+            if (w >= words.length()) grow(w + 1);
+            long mask = 1L << bit;
+            AtomicLongArray a = words;
+            for (long old = a.get(w); (old & mask) == 0; old = a.get(w)) {
+                if (a.compareAndSet(w, old, old | mask)) {
+                    blockCounts.incrementAndGet(w >>> BLOCK_SHIFT);
+                    count.incrementAndGet();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Returns false if the bit was already clear
+        boolean clear(int bit) {
+            int w = bit >>> 6;
+            AtomicLongArray a = words;
+            if (w >= a.length()) return false;
+            long mask = 1L << bit;
+            for (long old = a.get(w); (old & mask) != 0; old = a.get(w)) {
+                if (a.compareAndSet(w, old, old & ~mask)) {
+                    blockCounts.decrementAndGet(w >>> BLOCK_SHIFT);
+                    count.decrementAndGet();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void grow(int minWords) {
+            AtomicLongArray old = words;
+            AtomicLongArray grown = new AtomicLongArray(Math.max(minWords, old.length() * 2));
+            for (int i = 0; i < old.length(); i++) grown.set(i, old.get(i));
+            AtomicIntegerArray oldCounts = blockCounts;
+            AtomicIntegerArray grownCounts = new AtomicIntegerArray(((grown.length() - 1) >>> BLOCK_SHIFT) + 1);
+            for (int i = 0; i < oldCounts.length(); i++) grownCounts.set(i, oldCounts.get(i));
+            blockCounts = grownCounts;
+            words = grown;
+        }
+
+        int nextSetBit(int from) {
+            AtomicLongArray a = words;
+            int w = from >>> 6;
+            if (w >= a.length()) return -1;
+            long word = a.get(w) & (-1L << from);
+            while (true) {
+                if (word != 0) return (w << 6) + Long.numberOfTrailingZeros(word);
+                if (++w == a.length()) return -1;
+                word = a.get(w);
+            }
+        }
+
+        // Position of the k-th set bit (0-based), or -1; skips whole blocks, then words, by count
+        int select(int k) {
+            if (k >= count.get()) return -1;
+            AtomicLongArray a = words;
+            AtomicIntegerArray counts = blockCounts;
+            for (int block = 0; block < counts.length(); block++) {
+                int inBlock = counts.get(block);
+                if (k >= inBlock) {
+                    k -= inBlock;
+                    continue;
+                }
+                int end = Math.min(a.length(), (block + 1) << BLOCK_SHIFT);
+                for (int w = block << BLOCK_SHIFT; w < end; w++) {
+                    long word = a.get(w);
+                    int bits = Long.bitCount(word);
+                    if (k < bits) {
+                        for (int i = 0; i < k; i++) word &= word - 1; // drop the lowest k set bits
+                        return (w << 6) + Long.numberOfTrailingZeros(word);
+                    }
+                    k -= bits; // a concurrent flip may leave the block short; go on from the next one
+                }
+            }
+            return -1;
+        }
+    }
+
+    // User operations
+    public void registerUser(User u) {
+        if (users.containsKey(u.getUserId())) throw new IllegalArgumentException("User already exists: " + u.getUserId());
+        if (journal != null) journal.logRegisterUser(u);
+        users.put(u.getUserId(), u);
+    }
+
+    public boolean removeUser(String userId) {
+        User u = findUserById(userId);
+        if (u == null) return false;
+        if (!u.getBorrowedIsbns().isEmpty()) throw new IllegalStateException("User has borrowed books");
+        if (journal != null) journal.logRemoveUser(userId);
+        users.remove(userId);
+        return true;
+    }
+
+    public User findUserById(String userId) {
+        return users.get(userId);
+    }
+
+    public List<User> getAllUsers() { return new ArrayList<>(users.values()); }
+
+    /*
+     * Borrow/Return. These may run concurrently from many threads; adding or
+     * removing books and users must not overlap with them. Each operation locks the
+     * stripes of its user and books, always in ascending stripe order so concurrent
+     * checkouts cannot deadlock. It then flips the books' CAS state and the user's
+     * list together. A multi-book checkout either borrows every book or none.
+     */
+    public void borrowBook(String userId, String isbn) {
+        checkout(userId, List.of(isbn));
+    }
+
+    public void returnBook(String userId, String isbn) {
+        checkin(userId, List.of(isbn));
+    }
+
+    // All-or-nothing checkout of several books for one user
+    public void checkout(String userId, Collection<String> isbns) {
+        LocalDate today = LocalDate.now(clock);
+        checkout(userId, isbns, today, today.plusDays(loanDays));
+    }
+
+    // Also used by recovery, which restores the original dates
+    void checkout(String userId, Collection<String> isbns, LocalDate borrowedOn, LocalDate dueOn) {
+        User u = findUserById(userId);
+        if (u == null) throw new IllegalArgumentException("User not found: " + userId);
+        List<Book> batch = resolve(isbns);
+        int[] stripes = locks.lockAll(userId, isbns);
+        try {
+            for (Book b : batch) {
+                if (b.isBorrowed()) throw new IllegalStateException("Book already borrowed: " + b.getIsbn());
+            }
+            if (journal != null) journal.logCheckout(userId, isbns, borrowedOn, dueOn);
+            int done = 0;
+            try {
+                for (Book b : batch) {
+                    b.borrow();
+                    done++;
+                }
+            } catch (IllegalStateException e) {
+                for (int i = 0; i < done; i++) batch.get(i).returned(); // roll back
+                throw e;
+            }
+            for (Book b : batch) {
+                u.borrowBook(b.getIsbn());
+                ledger.open(new Loan(b.getIsbn(), userId, borrowedOn, dueOn));
+            }
+        } finally {
+            locks.unlockAll(stripes);
+        }
+    }
+
+    // All-or-nothing return of several books by one user
+    public void checkin(String userId, Collection<String> isbns) {
+        User u = findUserById(userId);
+        if (u == null) throw new IllegalArgumentException("User not found: " + userId);
+        List<Book> batch = resolve(isbns);
+        int[] stripes = locks.lockAll(userId, isbns);
+        try {
+            for (Book b : batch) {
+                if (!b.isBorrowed()) throw new IllegalStateException("Book is not borrowed: " + b.getIsbn());
+                Loan loan = ledger.loanOf(b.getIsbn());
+                if (loan == null || !loan.getUserId().equals(userId)) {
+                    throw new IllegalStateException("This user didn't borrow that book");
+                }
+            }
+            if (journal != null) journal.logCheckin(userId, isbns);
+            for (Book b : batch) {
+                ledger.close(b.getIsbn());
+                u.returnBook(b.getIsbn());
+                b.returned();
+            }
+        } finally {
+            locks.unlockAll(stripes);
+        }
+    }
+
+    // Loan queries; each costs O(log n + k) for k results
+    public Loan getLoan(String isbn) {
+        return ledger.loanOf(isbn);
+    }
+
+    public User findHolder(String isbn) {
+        Loan loan = ledger.loanOf(isbn);
+        return loan == null ? null : findUserById(loan.getUserId());
+    }
+
+    public List<Loan> loansOf(String userId) {
+        User u = findUserById(userId);
+        if (u == null) throw new IllegalArgumentException("User not found: " + userId);
+        List<Loan> res = new ArrayList<>();
+        for (String isbn : u.getBorrowedIsbns()) {
+            Loan loan = ledger.loanOf(isbn);
+            if (loan != null) res.add(loan);
+        }
+        return res;
+    }
+
+    // Loans due before the given day, earliest first
+    public List<Loan> overdueLoans(LocalDate asOf) {
+        return ledger.dueBefore(asOf);
+    }
+
+    public List<Loan> overdueLoans() {
+        return overdueLoans(LocalDate.now(clock));
+    }
+
+    public List<Loan> loansDueOn(LocalDate day) {
+        return ledger.dueOn(day);
+    }
+
+    public List<Loan> loansDueToday() {
+        return loansDueOn(LocalDate.now(clock));
+    }
+
+    public int countLoans() { return ledger.size(); }
+
+    // Every open loan, earliest due first
+    public List<Loan> allLoans() {
+        return ledger.dueBefore(LocalDate.MAX);
+    }
+
+    private List<Book> resolve(Collection<String> isbns) {
+        List<Book> batch = new ArrayList<>(isbns.size());
+        for (String isbn : isbns) {
+            Book b = findBookByIsbn(isbn);
+            if (b == null) throw new IllegalArgumentException("Book not found: " + isbn);
+            if (batch.contains(b)) throw new IllegalArgumentException("Duplicate ISBN in request: " + isbn);
+            batch.add(b);
+        }
+        return batch;
+    }
+
+    // Fixed set of locks; a key maps to a stripe by hash
+    private static final class StripedLocks {
+        private final ReentrantLock[] stripes;
+
+        StripedLocks(int count) {
+            stripes = new ReentrantLock[count];
+            for (int i = 0; i < count; i++) stripes[i] = new ReentrantLock();
+        }
+
+        private int stripeOf(String key) {
+            int h = key.hashCode();
+            return ((h ^ (h >>> 16)) & 0x7fffffff) % stripes.length;
+        }
+
+        // Locks the distinct stripes of all keys in ascending order and returns them
+        int[] lockAll(String userId, Collection<String> isbns) {
+            int[] ids = new int[isbns.size() + 1];
+            int n = 0;
+            ids[n++] = stripeOf("user:" + userId);
+            for (String isbn : isbns) ids[n++] = stripeOf("book:" + isbn);
+            Arrays.sort(ids);
+            int distinct = 0;
+            for (int i = 0; i < n; i++) {
+                if (distinct == 0 || ids[distinct - 1] != ids[i]) ids[distinct++] = ids[i];
+            }
+            int[] order = Arrays.copyOf(ids, distinct);
+            for (int s : order) stripes[s].lock();
+            return order;
+        }
+
+        void unlockAll(int[] order) {
+            for (int i = order.length - 1; i >= 0; i--) stripes[order[i]].unlock();
+        }
+    }
+}
+
+// -------------------- CatalogStore.java --------------------
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/*
+ * Column store for a library catalog; Library hands out Book views over its slots.
+ *
+ * Per slot it keeps a packed ISBN (a long), a reference into a shared UTF-8 byte
+ * arena for the title and a code into an author dictionary, so a book costs about
+ * 30 bytes plus its title instead of four objects and three strings. ISBNs made of
+ * up to 13 digits with single hyphens between them (the usual "978-0134685991"
+ * form) are packed exactly, with their hyphen positions, into the long; any other
+ * ISBN is stored in the arena. An open-addressing table over slots finds an ISBN.
+ *
+ * Freed slots are reused; each slot's generation counts its removals, so Book views
+ * can detect that their book is gone. Title bytes replaced by an edit stay in the
+ * arena until dead bytes outnumber live ones, then the arena is rewritten.
+ */
+final class CatalogStore {
+    private static final long IN_ARENA = 1L << 63;
+    private static final int MAX_DIGITS = 13;
+
+    private long[] isbnKeys = new long[16];   // 0 marks a free slot
+    private long[] titleRefs = new long[16];  // arena offset << 16 | length
+    private int[] authorCodes = new int[16];
+    private int[] generations = new int[16];  // bumped each time the slot is freed
+    private int slotLimit;                    // slots in use are below this
+    private int size;
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+
+    private byte[] arena = new byte[1 << 12];
+    private int arenaUsed;
+    private long arenaDead;
+
+    private final ArrayList<String> authors = new ArrayList<>();
+    private final ArrayList<String> authorsLower = new ArrayList<>();
+    private final HashMap<String, Integer> authorCodeOf = new HashMap<>();
+
+    private int[] table = new int[32];        // slot + 1, 0 when empty
+
+    int size() { return size; }
+
+    // One past the highest slot that may be in use
+    int slotLimit() { return slotLimit; }
+
+    boolean isLive(int slot) { return slot < slotLimit && isbnKeys[slot] != 0; }
+
+    int generation(int slot) { return generations[slot]; }
+
+    // Adds a book and returns its slot; the ISBN must not be present already
+    int add(String isbn, String title, String author) {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (slotLimit == isbnKeys.length) {
+                int grown = slotLimit * 2;
+                isbnKeys = Arrays.copyOf(isbnKeys, grown);
+                titleRefs = Arrays.copyOf(titleRefs, grown);
+                authorCodes = Arrays.copyOf(authorCodes, grown);
+                generations = Arrays.copyOf(generations, grown);
+            }
+            slot = slotLimit++;
+        }
+        long key = pack(isbn);
+        isbnKeys[slot] = key != 0 ? key : IN_ARENA | append(isbn.getBytes(StandardCharsets.UTF_8));
+        titleRefs[slot] = append(title.getBytes(StandardCharsets.UTF_8));
+        authorCodes[slot] = authorCode(author);
+        size++;
+        if ((size + 1) * 2 > table.length) resize(table.length * 2);
+        insert(slot);
+        return slot;
+    }
+
+    void remove(int slot) {
+        deleteFromTable(slot);
+        if ((isbnKeys[slot] & IN_ARENA) != 0) arenaDead += (int) isbnKeys[slot] & 0xffff;
+        arenaDead += (int) titleRefs[slot] & 0xffff;
+        isbnKeys[slot] = 0;
+        titleRefs[slot] = 0;
+        generations[slot]++;
+        if (freeCount == freeSlots.length) freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        freeSlots[freeCount++] = slot;
+        size--;
+        maybeCompactArena();
+    }
+
+    // Slot of the book with this ISBN, or -1
+    int find(String isbn) {
+        long key = pack(isbn);
+        byte[] bytes = key != 0 ? null : isbn.getBytes(StandardCharsets.UTF_8);
+        int h = key != 0 ? mix(key) : mix(hashBytes(bytes, 0, bytes.length));
+        int mask = table.length - 1;
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+            int entry = table[i];
+            if (entry == 0) return -1;
+            int slot = entry - 1;
+            long stored = isbnKeys[slot];
+            if (key != 0 ? stored == key : (stored & IN_ARENA) != 0 && arenaEquals(stored, bytes)) return slot;
+        }
+    }
+
+    String isbn(int slot) {
+        long key = isbnKeys[slot];
+        if ((key & IN_ARENA) != 0) return text(key);
+        StringBuilder sb = new StringBuilder(MAX_DIGITS + 12);
+        appendIsbn(key, sb);
+        return sb.toString();
+    }
+
+    String title(int slot) { return text(titleRefs[slot]); }
+
+    String author(int slot) { return authors.get(authorCodes[slot]); }
+
+    // Case-insensitive substring tests against a lower-cased query, for search verification
+    boolean titleContains(int slot, String lowerQuery) {
+        long ref = titleRefs[slot];
+        int offset = (int) (ref >>> 16), length = (int) ref & 0xffff;
+        int n = lowerQuery.length();
+        for (int i = 0; i < n; i++) {
+            if (lowerQuery.charAt(i) >= 0x80) return BookSearchIndex.normalize(text(ref)).contains(lowerQuery);
+        }
+        for (int i = offset; i < offset + length; i++) {
+            if (arena[i] < 0) return BookSearchIndex.normalize(text(ref)).contains(lowerQuery);
+        }
+        // ASCII on both sides: compare bytes directly
+        outer:
+        for (int start = offset, last = offset + length - n; start <= last; start++) {
+            for (int i = 0; i < n; i++) {
+                int c = arena[start + i];
+                if (c >= 'A' && c <= 'Z') c += 'a' - 'A';
+                if (c != lowerQuery.charAt(i)) continue outer;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    boolean authorContains(int slot, String lowerQuery) {
+        return authorsLower.get(authorCodes[slot]).contains(lowerQuery);
+    }
+
+    void setTitle(int slot, String title) {
+        arenaDead += (int) titleRefs[slot] & 0xffff;
+        titleRefs[slot] = append(title.getBytes(StandardCharsets.UTF_8));
+        maybeCompactArena();
+    }
+
+    void setAuthor(int slot, String author) {
+        authorCodes[slot] = authorCode(author);
+    }
+
+    // Appends "[isbn] title by author (state)" straight from the columns
+    void appendLine(int slot, boolean borrowed, StringBuilder out) {
+        out.append('[');
+        long key = isbnKeys[slot];
+        if ((key & IN_ARENA) != 0) appendText(key, out);
+        else appendIsbn(key, out);
+        out.append("] ");
+        appendText(titleRefs[slot], out);
+        out.append(" by ").append(authors.get(authorCodes[slot]))
+                .append(borrowed ? " (borrowed)" : " (available)");
+    }
+
+    // Approximate bytes held by the columns, arena, dictionary and table
+    long footprint() {
+        long bytes = isbnKeys.length * 8L + titleRefs.length * 8L + authorCodes.length * 4L
+                + generations.length * 4L + freeSlots.length * 4L + arena.length + table.length * 4L;
+        for (String a : authors) bytes += 2 * (40 + a.length()) + 32; // both spellings plus map entry
+        return bytes;
+    }
+
+    /*
+     * ISBN packing: bits 0-43 hold the digits as a number, bits 44-55 mark a hyphen
+     * after digit i (i = 0..11), bits 56-59 hold the digit count so leading zeros
+     * survive. Returns 0 when the ISBN has another shape.
+     */
+    static long pack(String isbn) {
+        int n = isbn.length();
+        if (n == 0) return 0;
+        long value = 0, hyphens = 0;
+        int digits = 0;
+        for (int i = 0; i < n; i++) {
+            char c = isbn.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++digits > MAX_DIGITS) return 0;
+                value = value * 10 + (c - '0');
+            } else if (c == '-' && digits > 0 && i + 1 < n && isbn.charAt(i - 1) != '-' && digits < MAX_DIGITS) {
+                hyphens |= 1L << (digits - 1);
+            } else {
+                return 0;
+            }
+        }
+        if (isbn.charAt(n - 1) == '-') return 0;
+        return (long) digits << 56 | hyphens << 44 | value;
+    }
+
+    private static void appendIsbn(long key, StringBuilder out) {
+        int digits = (int) (key >>> 56) & 0xf;
+        long hyphens = (key >>> 44) & 0xfff;
+        long value = key & ((1L << 44) - 1);
+        int start = out.length();
+        for (int i = digits - 1; i >= 0; i--) {
+            if (i < digits - 1 && (hyphens & (1L << i)) != 0) out.append('-');
+            out.append((char) ('0' + value % 10));
+            value /= 10;
+        }
+        // Digits were produced last to first
+        for (int i = start, j = out.length() - 1; i < j; i++, j--) {
+            char c = out.charAt(i);
+            out.setCharAt(i, out.charAt(j));
+            out.setCharAt(j, c);
+        }
+    }
+
+    private int authorCode(String author) {
+        Integer code = authorCodeOf.get(author);
+        if (code == null) {
+            code = authors.size();
+            authors.add(author);
+            authorsLower.add(BookSearchIndex.normalize(author));
+            authorCodeOf.put(author, code);
+        }
+        return code;
+    }
+
+    private long append(byte[] bytes) {
+        if (bytes.length > 0xffff) throw new IllegalArgumentException("Text too long to store");
+        if (arenaUsed + bytes.length > arena.length) {
+            long grown = Math.max((long) arenaUsed + bytes.length, arena.length * 2L);
+            if (grown > Integer.MAX_VALUE - 8) throw new IllegalStateException("Catalog text arena is full");
+            arena = Arrays.copyOf(arena, (int) grown);
+        }
+        System.arraycopy(bytes, 0, arena, arenaUsed, bytes.length);
+        long ref = (long) arenaUsed << 16 | bytes.length;
+        arenaUsed += bytes.length;
+        return ref;
+    }
+
+    private String text(long ref) {
+        return new String(arena, (int) ((ref & ~IN_ARENA) >>> 16), (int) ref & 0xffff, StandardCharsets.UTF_8);
+    }
+
+    // ASCII is copied directly; anything else is decoded
+    private void appendText(long ref, StringBuilder out) {
+        int offset = (int) ((ref & ~IN_ARENA) >>> 16), length = (int) ref & 0xffff;
+        for (int i = offset; i < offset + length; i++) {
+            if (arena[i] < 0) {
+                out.append(text(ref));
+                return;
+            }
+        }
+        for (int i = offset; i < offset + length; i++) out.append((char) arena[i]);
+    }
+
+    private boolean arenaEquals(long ref, byte[] bytes) {
+        int offset = (int) ((ref & ~IN_ARENA) >>> 16), length = (int) ref & 0xffff;
+        return length == bytes.length && Arrays.equals(arena, offset, offset + length, bytes, 0, length);
+    }
+
+    private void maybeCompactArena() {
+        if (arenaDead < 1 << 20 || arenaDead < arenaUsed / 2) return;
+        byte[] old = arena;
+        arena = new byte[Math.max(1 << 12, (int) (arenaUsed - arenaDead))];
+        arenaUsed = 0;
+        arenaDead = 0;
+        for (int slot = 0; slot < slotLimit; slot++) {
+            if (isbnKeys[slot] == 0) continue;
+            titleRefs[slot] = copy(old, titleRefs[slot]);
+            if ((isbnKeys[slot] & IN_ARENA) != 0) isbnKeys[slot] = IN_ARENA | copy(old, isbnKeys[slot]);
+        }
+    }
+
+    private long copy(byte[] from, long ref) {
+        int offset = (int) ((ref & ~IN_ARENA) >>> 16), length = (int) ref & 0xffff;
+        System.arraycopy(from, offset, arena, arenaUsed, length);
+        long moved = (long) arenaUsed << 16 | length;
+        arenaUsed += length;
+        return moved;
+    }
+
+    // ---- ISBN table: linear probing with backward-shift deletion ----
+
+    private int hashOf(int slot) {
+        long key = isbnKeys[slot];
+        if ((key & IN_ARENA) == 0) return mix(key);
+        int offset = (int) ((key & ~IN_ARENA) >>> 16);
+        return mix(hashBytes(arena, offset, offset + ((int) key & 0xffff)));
+    }
+
+    private static int hashBytes(byte[] bytes, int from, int to) {
+        int h = 1;
+        for (int i = from; i < to; i++) h = 31 * h + bytes[i];
+        return h;
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void insert(int slot) {
+        int mask = table.length - 1;
+        int i = hashOf(slot) & mask;
+        while (table[i] != 0) i = (i + 1) & mask;
+        table[i] = slot + 1;
+    }
+
+    private void deleteFromTable(int slot) {
+        int mask = table.length - 1;
+        int i = hashOf(slot) & mask;
+        while (table[i] != slot + 1) i = (i + 1) & mask;
+        // Move later entries of the probe run back into the gap
+        for (int j = (i + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+            int home = hashOf(table[j] - 1) & mask;
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                table[i] = table[j];
+                i = j;
+            }
+        }
+        table[i] = 0;
+    }
+
+    private void resize(int capacity) {
+        table = new int[capacity];
+        for (int slot = 0; slot < slotLimit; slot++) {
+            if (isbnKeys[slot] != 0) insert(slot);
+        }
+    }
+}
+
+// -------------------- BookSearchIndex.java --------------------
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.IntFunction;
+
+/*
+ * Full-text index over book titles and authors, maintained incrementally by Library.
+ *
+ * Every indexed book gets a document id that maps to its catalog slot. Each field
+ * keeps trigram postings for substring queries and a sorted token dictionary for
+ * prefix and ranked keyword queries; texts are read back from the catalog to
+ * verify candidates rather than copied. Removing or re-indexing a book only marks
+ * its old document dead; postings are compacted once dead documents outnumber
+ * live ones.
+ */
+public class BookSearchIndex {
+    private final IntFunction<Book> bookAt;               // catalog slot -> book view
+    private final IntList docs = new IntList();           // doc id -> slot, -1 when dead
+    private int[] docOfSlot = new int[16];                // slot -> live doc id + 1, 0 when not indexed
+    private final Field title;
+    private final Field author;
+    private int live;
+    private int dead;
+
+    // Tests whether a field of the book in a slot contains an already-normalized query
+    public interface TextMatcher {
+        boolean contains(int slot, String query);
+    }
+
+    public BookSearchIndex(IntFunction<Book> bookAt, TextMatcher titleMatcher, TextMatcher authorMatcher) {
+        this.bookAt = bookAt;
+        this.title = new Field(titleMatcher);
+        this.author = new Field(authorMatcher);
+    }
+
+    public void add(Book b) {
+        int doc = docs.size;
+        int slot = b.getSlot();
+        docs.add(slot);
+        if (slot >= docOfSlot.length) docOfSlot = Arrays.copyOf(docOfSlot, Math.max(slot + 1, docOfSlot.length * 2));
+        docOfSlot[slot] = doc + 1;
+        live++;
+        title.add(doc, b.getTitle());
+        author.add(doc, b.getAuthor());
+    }
+
+    public void remove(Book b) {
+        int slot = b.getSlot();
+        if (slot >= docOfSlot.length || docOfSlot[slot] == 0) return;
+        docs.values[docOfSlot[slot] - 1] = -1;
+        docOfSlot[slot] = 0;
+        live--;
+        if (++dead > 1024 && dead > live) compact();
+    }
+
+    // Re-index a book whose title or author changed
+    public void update(Book b) {
+        remove(b);
+        add(b);
+    }
+
+    // Books whose title contains q (case-insensitive), in catalog order
+    public List<Book> titleContains(String q, int offset, int limit) {
+        return title.contains(normalize(q), offset, limit);
+    }
+
+    public List<Book> authorContains(String q, int offset, int limit) {
+        return author.contains(normalize(q), offset, limit);
+    }
+
+    // Books with a title or author word starting with prefix
+    public List<Book> wordPrefix(String prefix, int offset, int limit) {
+        String p = normalize(prefix).trim();
+        BitSet matches = new BitSet(docs.size);
+        if (!p.isEmpty()) {
+            title.collectPrefix(p, matches);
+            author.collectPrefix(p, matches);
+        }
+        return page(matches, offset, limit);
+    }
+
+    /*
+     * Ranked keyword search: each query word scores idf * (2 for a title match +
+     * 1 for an author match); best score first, ties in catalog order.
+     */
+    public List<Book> search(String query, int offset, int limit) {
+        Map<Integer, Double> scores = new HashMap<>();
+        int n = Math.max(1, live);
+        for (String term : new HashSet<>(tokens(normalize(query)))) {
+            IntList inTitle = title.tokens.get(term);
+            IntList inAuthor = author.tokens.get(term);
+            int df = (inTitle == null ? 0 : inTitle.size) + (inAuthor == null ? 0 : inAuthor.size);
+            if (df == 0) continue;
+            double idf = Math.log(1 + (double) n / df);
+            addScores(scores, inTitle, 2 * idf);
+            addScores(scores, inAuthor, idf);
+        }
+        Integer[] ranked = scores.keySet().toArray(new Integer[0]);
+        Arrays.sort(ranked, (a, b) -> {
+            int c = Double.compare(scores.get(b), scores.get(a));
+            return c != 0 ? c : Integer.compare(a, b);
+        });
+        List<Book> result = new ArrayList<>();
+        for (int i = Math.max(0, offset); i < ranked.length && result.size() < limit; i++) {
+            result.add(bookAt.apply(docs.values[ranked[i]]));
+        }
+        return result;
+    }
+
+    private void addScores(Map<Integer, Double> scores, IntList postings, double weight) {
+        if (postings == null) return;
+        for (int i = 0; i < postings.size; i++) {
+            int doc = postings.values[i];
+            if (docs.values[doc] >= 0) scores.merge(doc, weight, Double::sum);
+        }
+    }
+
+    private List<Book> page(BitSet matches, int offset, int limit) {
+        List<Book> result = new ArrayList<>();
+        int skip = Math.max(0, offset);
+        for (int doc = matches.nextSetBit(0); doc >= 0 && result.size() < limit; doc = matches.nextSetBit(doc + 1)) {
+            int slot = docs.values[doc];
+            if (slot < 0) continue;
+            if (skip > 0) skip--;
+            else result.add(bookAt.apply(slot));
+        }
+        return result;
+    }
+
+    // Rebuild without dead documents; live books keep their relative order
+    private void compact() {
+        int[] slots = new int[live];
+        int n = 0;
+        for (int doc = 0; doc < docs.size; doc++) if (docs.values[doc] >= 0) slots[n++] = docs.values[doc];
+        docs.size = 0;
+        Arrays.fill(docOfSlot, 0);
+        title.clear();
+        author.clear();
+        live = 0;
+        dead = 0;
+        for (int slot : slots) add(bookAt.apply(slot));
+    }
+
+    static String normalize(String text) {
+        return text.toLowerCase(Locale.ROOT);
+    }
+
+    // Words of already-normalized text (runs of letters and digits)
+    static List<String> tokens(String text) {
+        List<String> out = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (word && start < 0) start = i;
+            else if (!word && start >= 0) {
+                out.add(text.substring(start, i));
+                start = -1;
+            }
+        }
+        return out;
+    }
+
+    // One indexed text field
+    private final class Field {
+        final TextMatcher matcher;                           // verifies candidates against the catalog text
+        final HashMap<Long, IntList> trigrams = new HashMap<>();
+        final TreeMap<String, IntList> tokens = new TreeMap<>();
+
+        Field(TextMatcher matcher) {
+            this.matcher = matcher;
+        }
+
+        // Whether a live document's text contains q
+        boolean matches(int doc, String q) {
+            int slot = docs.values[doc];
+            return slot >= 0 && matcher.contains(slot, q);
+        }
+
+        void add(int doc, String raw) {
+            String text = normalize(raw);
+            Set<Long> seen = new HashSet<>();
+            for (int i = 0; i + 3 <= text.length(); i++) {
+                long gram = trigram(text, i);
+                if (seen.add(gram)) trigrams.computeIfAbsent(gram, k -> new IntList()).add(doc);
+            }
+            for (String token : new HashSet<>(BookSearchIndex.tokens(text))) {
+                tokens.computeIfAbsent(token, k -> new IntList()).add(doc);
+            }
+        }
+
+        List<Book> contains(String q, int offset, int limit) {
+            List<Book> result = new ArrayList<>();
+            int skip = Math.max(0, offset);
+            if (q.length() < 3) {
+                // Too short for trigrams: scan the pre-normalized texts
+                for (int doc = 0; doc < docs.size && result.size() < limit; doc++) {
+                    if (!matches(doc, q)) continue;
+                    if (skip > 0) skip--;
+                    else result.add(bookAt.apply(docs.values[doc]));
+                }
+                return result;
+            }
+            // Candidates come from the rarest trigram of the query, then are verified
+            IntList rarest = null;
+            for (int i = 0; i + 3 <= q.length(); i++) {
+                IntList postings = trigrams.get(trigram(q, i));
+                if (postings == null) return result;
+                if (rarest == null || postings.size < rarest.size) rarest = postings;
+            }
+            for (int i = 0; i < rarest.size && result.size() < limit; i++) {
+                int doc = rarest.values[i];
+                if (!matches(doc, q)) continue;
+                if (skip > 0) skip--;
+                else result.add(bookAt.apply(docs.values[doc]));
+            }
+            return result;
+        }
+
+        void collectPrefix(String prefix, BitSet out) {
+            for (IntList postings : tokens.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+                for (int i = 0; i < postings.size; i++) out.set(postings.values[i]);
+            }
+        }
+
+        void clear() {
+            trigrams.clear();
+            tokens.clear();
+        }
+    }
+
+    private static long trigram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    // Growable int array for postings (doc ids are appended in increasing order)
+    private static final class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int v) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = v;
+        }
+    }
+}
+
+// -------------------- Loan.java --------------------
+import java.time.LocalDate;
+
+public class Loan {
+    private final String isbn;
+    private final String userId;
+    private final LocalDate borrowedOn;
+    private final LocalDate dueOn;
+
+    public Loan(String isbn, String userId, LocalDate borrowedOn, LocalDate dueOn) {
+        this.isbn = isbn;
+        this.userId = userId;
+        this.borrowedOn = borrowedOn;
+        this.dueOn = dueOn;
+    }
+
+    public String getIsbn() { return isbn; }
+    public String getUserId() { return userId; }
+    public LocalDate getBorrowedOn() { return borrowedOn; }
+    public LocalDate getDueOn() { return dueOn; }
+
+    public boolean isOverdue(LocalDate asOf) { return dueOn.isBefore(asOf); }
+
+    @Override
+    public String toString() {
+        return String.format("[%s] held by %s since %s, due %s", isbn, userId, borrowedOn, dueOn);
+    }
+}
+
+// -------------------- LoanLedger.java --------------------
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/*
+ * Open loans, indexed two ways: by ISBN for "who has this book", and in due-date
+ * order so overdue sweeps and "due on" queries only visit the loans they return.
+ * Library updates it under the book's lock; both indexes tolerate concurrent
+ * updates of different books.
+ */
+class LoanLedger {
+    private static final Comparator<Loan> BY_DUE_DATE =
+            Comparator.comparing(Loan::getDueOn).thenComparing(Loan::getIsbn);
+
+    private final Map<String, Loan> byIsbn = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<Loan> byDueDate = new ConcurrentSkipListSet<>(BY_DUE_DATE);
+
+    void open(Loan loan) {
+        if (byIsbn.putIfAbsent(loan.getIsbn(), loan) != null) {
+            throw new IllegalStateException("Book already on loan: " + loan.getIsbn());
+        }
+        byDueDate.add(loan);
+    }
+
+    Loan close(String isbn) {
+        Loan loan = byIsbn.remove(isbn);
+        if (loan != null) byDueDate.remove(loan);
+        return loan;
+    }
+
+    Loan loanOf(String isbn) {
+        return byIsbn.get(isbn);
+    }
+
+    int size() { return byIsbn.size(); }
+
+    List<Loan> dueBefore(LocalDate day) {
+        return new ArrayList<>(byDueDate.headSet(bound(day), false));
+    }
+
+    List<Loan> dueOn(LocalDate day) {
+        return new ArrayList<>(byDueDate.subSet(bound(day), true, bound(day.plusDays(1)), false));
+    }
+
+    // Sorts before every real loan due on that day (ISBNs are never empty)
+    private static Loan bound(LocalDate day) {
+        return new Loan("", "", day, day);
+    }
+}
+
+// -------------------- LibraryJournal.java --------------------
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/*
+ * Event journal for a Library: every add/update/remove of a book, register/remove
+ * of a user, checkout and checkin is appended as a binary record
+ * [int length][int crc32][byte type][fields]. Strings are [short n][n UTF-8 bytes]
+ * and dates are epoch days. Records collect in a buffer and reach the file in
+ * batches; sync() makes everything appended so far durable.
+ *
+ * Once the log passes a size threshold it is compacted into a snapshot of the
+ * current catalog, users and loans (written to a temp file, then renamed over
+ * the old one) and the log starts again. Restart maps the snapshot, replays the
+ * log after it and drops a torn tail. The search index is rebuilt in the
+ * background after that, so lookups are available straight away.
+ *
+ * Snapshots must be taken while no other thread is changing the library.
+ */
+public class LibraryJournal implements AutoCloseable {
+    public static final String LOG_FILE = "library.journal";
+    public static final String SNAPSHOT_FILE = "library.snapshot";
+    private static final int SNAPSHOT_MAGIC = 0x4c425353; // "LBSS"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final byte ADD_BOOK = 1, UPDATE_BOOK = 2, REMOVE_BOOK = 3, REGISTER_USER = 4,
+            REMOVE_USER = 5, CHECKOUT = 6, CHECKIN = 7;
+    private static final long SNAPSHOT_AFTER_BYTES = 64L << 20;
+
+    private final Path dir;
+    private final Library library;
+    private FileChannel log;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+    private final CRC32 crc = new CRC32();
+    private long appendedSeq;         // last record handed to append
+    private volatile long durableSeq; // last record known to be on disk
+    private final Object syncLock = new Object();
+
+    private LibraryJournal(Path dir, Library library) {
+        this.dir = dir;
+        this.library = library;
+    }
+
+    // Recovers an empty library from disk, then records its changes from here on
+    public static LibraryJournal open(Path dir, Library library) throws IOException {
+        if (library.countBooks() != 0 || !library.getAllUsers().isEmpty()) {
+            throw new IllegalArgumentException("Library must be empty before recovery");
+        }
+        LibraryJournal journal = new LibraryJournal(dir, library);
+        library.deferIndexing();
+        try {
+            Path snapshot = dir.resolve(SNAPSHOT_FILE);
+            if (Files.exists(snapshot)) loadSnapshot(snapshot, library);
+            journal.log = FileChannel.open(dir.resolve(LOG_FILE), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long validEnd = replay(journal.log, library);
+            // Drop a torn or corrupt tail so new records follow the last good one
+            journal.log.truncate(validEnd);
+            journal.log.position(validEnd);
+        } finally {
+            library.resumeIndexing();
+        }
+        library.attachJournal(journal);
+        return journal;
+    }
+
+    // Appenders, called by Library after validating a change and before applying it
+
+    void logAddBook(Book b) {
+        logBook(ADD_BOOK, b);
+    }
+
+    void logUpdateBook(Book b) {
+        logBook(UPDATE_BOOK, b);
+    }
+
+    private synchronized void logBook(byte type, Book b) {
+        byte[] isbn = utf8(b.getIsbn()), title = utf8(b.getTitle()), author = utf8(b.getAuthor());
+        int start = begin(1 + 6 + isbn.length + title.length + author.length);
+        buffer.put(type);
+        putString(isbn);
+        putString(title);
+        putString(author);
+        finish(start);
+    }
+
+    synchronized void logRemoveBook(String isbn) {
+        logKey(REMOVE_BOOK, isbn);
+    }
+
+    synchronized void logRegisterUser(User u) {
+        byte[] id = utf8(u.getUserId()), name = utf8(u.getName());
+        int start = begin(1 + 4 + id.length + name.length);
+        buffer.put(REGISTER_USER);
+        putString(id);
+        putString(name);
+        finish(start);
+    }
+
+    synchronized void logRemoveUser(String userId) {
+        logKey(REMOVE_USER, userId);
+    }
+
+    synchronized void logCheckout(String userId, Collection<String> isbns, LocalDate borrowedOn, LocalDate dueOn) {
+        logLoans(CHECKOUT, userId, isbns, borrowedOn, dueOn);
+    }
+
+    synchronized void logCheckin(String userId, Collection<String> isbns) {
+        logLoans(CHECKIN, userId, isbns, null, null);
+    }
+
+    private void logKey(byte type, String key) {
+        byte[] bytes = utf8(key);
+        int start = begin(1 + 2 + bytes.length);
+        buffer.put(type);
+        putString(bytes);
+        finish(start);
+    }
+
+    private void logLoans(byte type, String userId, Collection<String> isbns, LocalDate borrowedOn, LocalDate dueOn) {
+        if (isbns.size() > Short.MAX_VALUE) throw new IllegalArgumentException("Too many books in one request");
+        byte[] id = utf8(userId);
+        byte[][] keys = new byte[isbns.size()][];
+        int size = 1 + 2 + id.length + (type == CHECKOUT ? 8 : 0) + 2;
+        int n = 0;
+        for (String isbn : isbns) {
+            keys[n] = utf8(isbn);
+            size += 2 + keys[n++].length;
+        }
+        int start = begin(size);
+        buffer.put(type);
+        putString(id);
+        if (type == CHECKOUT) buffer.putInt((int) borrowedOn.toEpochDay()).putInt((int) dueOn.toEpochDay());
+        buffer.putShort((short) n);
+        for (byte[] key : keys) putString(key);
+        finish(start);
+    }
+
+    private static byte[] utf8(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE) throw new IllegalArgumentException("Text too long to store");
+        return bytes;
+    }
+
+    private void putString(byte[] bytes) {
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+
+    // Reserves room for a record and returns its start; the header is filled in by finish
+    private int begin(int payload) {
+        if (8 + payload > buffer.capacity()) throw new IllegalArgumentException("Record too large");
+        try {
+            if (buffer.remaining() < 8 + payload) writeBuffer();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int start = buffer.position();
+        buffer.position(start + 8);
+        return start;
+    }
+
+    private void finish(int start) {
+        int payload = buffer.position() - start - 8;
+        crc.reset();
+        ByteBuffer body = buffer.duplicate();
+        body.position(start + 8).limit(start + 8 + payload);
+        crc.update(body);
+        buffer.putInt(start, payload).putInt(start + 4, (int) crc.getValue());
+        appendedSeq++;
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) log.write(buffer);
+        buffer.clear();
+    }
+
+    /*
+     * Makes every record appended before the call durable. Threads arriving while
+     * another thread is forcing wait for it and usually find their records covered.
+     */
+    public void sync() throws IOException {
+        long seq;
+        synchronized (this) {
+            seq = appendedSeq;
+        }
+        if (durableSeq >= seq) return;
+        synchronized (syncLock) {
+            if (durableSeq >= seq) return;
+            long upTo;
+            synchronized (this) {
+                writeBuffer();
+                upTo = appendedSeq;
+            }
+            log.force(false);
+            durableSeq = upTo;
+        }
+    }
 
-    public void borrow() {
-        if (isBorrowed) throw new IllegalStateException("Book already borrowed");
-        isBorrowed = true;
+    // Snapshot once the log has grown past the threshold
+    public synchronized void maybeSnapshot() throws IOException {
+        if (log.size() + buffer.position() >= SNAPSHOT_AFTER_BYTES) snapshot();
     }
 
-    public void returned() {
-        if (!isBorrowed) throw new IllegalStateException("Book is not borrowed");
-        isBorrowed = false;
+    public synchronized void snapshot() throws IOException {
+        Path tmp = dir.resolve(SNAPSHOT_FILE + ".tmp");
+        writeSnapshot(tmp, library);
+        Files.move(tmp, dir.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        // Everything logged so far is in the snapshot
+        buffer.clear();
+        log.truncate(0);
+        log.position(0);
+        log.force(true);
+        durableSeq = appendedSeq;
     }
 
     @Override
-    public String toString() {
-        return String.format("[%s] %s by %s %s", isbn, title, author, isBorrowed ? "(borrowed)" : "(available)");
+    public void close() throws IOException {
+        sync();
+        log.close();
     }
-}
 
-// -------------------- User.java --------------------
-import java.util.ArrayList;
-import java.util.List;
+    /*
+     * Snapshot layout: [magic][version][int books] then isbn, title, author per book
+     * in catalog order; [int users] then id, name; [int loans] then isbn, user id,
+     * borrowed-on and due epoch days.
+     */
+    private static void writeSnapshot(Path file, Library library) throws IOException {
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20);
+            buf.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putInt(library.countBooks());
+            for (Book b : library.allBooks()) {
+                put(out, buf, b.getIsbn());
+                put(out, buf, b.getTitle());
+                put(out, buf, b.getAuthor());
+            }
+            List<User> users = library.getAllUsers();
+            if (buf.remaining() < 4) drain(out, buf);
+            buf.putInt(users.size());
+            for (User u : users) {
+                put(out, buf, u.getUserId());
+                put(out, buf, u.getName());
+            }
+            List<Loan> loans = library.allLoans();
+            if (buf.remaining() < 4) drain(out, buf);
+            buf.putInt(loans.size());
+            for (Loan loan : loans) {
+                put(out, buf, loan.getIsbn());
+                put(out, buf, loan.getUserId());
+                if (buf.remaining() < 8) drain(out, buf);
+                buf.putInt((int) loan.getBorrowedOn().toEpochDay()).putInt((int) loan.getDueOn().toEpochDay());
+            }
+            drain(out, buf);
+            out.force(true);
+        }
+    }
 
-public class User {
-    private final String userId;
-    private String name;
-    private final List<String> borrowedIsbns; // store ISBNs of borrowed books
+    private static void put(FileChannel out, ByteBuffer buf, String s) throws IOException {
+        byte[] bytes = utf8(s);
+        if (buf.remaining() < 2 + bytes.length) drain(out, buf);
+        buf.putShort((short) bytes.length).put(bytes);
+    }
 
-    public User(String userId, String name) {
-        this.userId = userId;
-        this.name = name;
-        this.borrowedIsbns = new ArrayList<>();
+    private static void drain(FileChannel out, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) out.write(buf);
+        buf.clear();
     }
 
-    public String getUserId() { return userId; }
-    public String getName() { return name; }
-    public void setName(String name) { this.name = name; }
-    public List<String> getBorrowedIsbns() { return borrowedIsbns; }
+    private static void loadSnapshot(Path file, Library library) throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer map = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            if (map.getInt() != SNAPSHOT_MAGIC || map.getInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Not a library snapshot: " + file);
+            }
+            byte[] scratch = new byte[Short.MAX_VALUE];
+            for (int i = map.getInt(); i > 0; i--) {
+                library.addBook(new Book(getString(map, scratch), getString(map, scratch), getString(map, scratch)));
+            }
+            for (int i = map.getInt(); i > 0; i--) {
+                library.registerUser(new User(getString(map, scratch), getString(map, scratch)));
+            }
+            for (int i = map.getInt(); i > 0; i--) {
+                String isbn = getString(map, scratch);
+                String userId = getString(map, scratch);
+                LocalDate borrowedOn = LocalDate.ofEpochDay(map.getInt());
+                library.checkout(userId, List.of(isbn), borrowedOn, LocalDate.ofEpochDay(map.getInt()));
+            }
+        }
+    }
 
-    public void borrowBook(String isbn) {
-        borrowedIsbns.add(isbn);
+    private static String getString(ByteBuffer in, byte[] scratch) {
+        int n = in.getShort();
+        in.get(scratch, 0, n);
+        return new String(scratch, 0, n, StandardCharsets.UTF_8);
     }
 
-    public boolean returnBook(String isbn) {
-        return borrowedIsbns.remove(isbn);
+    // Applies valid records in order and returns the offset after the last one
+    private static long replay(FileChannel log, Library library) throws IOException {
+        long size = log.size();
+        if (size == 0) return 0;
+        MappedByteBuffer map = log.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        CRC32 crc = new CRC32();
+        byte[] scratch = new byte[Short.MAX_VALUE];
+        while (map.remaining() >= 8) {
+            int start = map.position();
+            int length = map.getInt();
+            int checksum = map.getInt();
+            if (length < 1 || length > map.remaining()) return start;
+            ByteBuffer payload = map.slice();
+            payload.limit(length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) return start;
+            switch (payload.get()) {
+                case ADD_BOOK:
+                    library.addBook(new Book(getString(payload, scratch), getString(payload, scratch),
+                            getString(payload, scratch)));
+                    break;
+                case UPDATE_BOOK: {
+                    Book b = library.findBookByIsbn(getString(payload, scratch));
+                    b.setTitle(getString(payload, scratch));
+                    b.setAuthor(getString(payload, scratch));
+                    break;
+                }
+                case REMOVE_BOOK:
+                    library.removeBook(getString(payload, scratch));
+                    break;
+                case REGISTER_USER:
+                    library.registerUser(new User(getString(payload, scratch), getString(payload, scratch)));
+                    break;
+                case REMOVE_USER:
+                    library.removeUser(getString(payload, scratch));
+                    break;
+                case CHECKOUT: {
+                    String userId = getString(payload, scratch);
+                    LocalDate borrowedOn = LocalDate.ofEpochDay(payload.getInt());
+                    LocalDate dueOn = LocalDate.ofEpochDay(payload.getInt());
+                    library.checkout(userId, readKeys(payload, scratch), borrowedOn, dueOn);
+                    break;
+                }
+                case CHECKIN: {
+                    String userId = getString(payload, scratch);
+                    library.checkin(userId, readKeys(payload, scratch));
+                    break;
+                }
+                default:
+                    return start;
+            }
+            map.position(start + 8 + length);
+        }
+        return map.position();
     }
 
-    @Override
-    public String toString() {
-        return String.format("%s (%s) - borrowed: %d", name, userId, borrowedIsbns.size());
+    private static List<String> readKeys(ByteBuffer in, byte[] scratch) {
+        int n = in.getShort();
+        List<String> keys = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) keys.add(getString(in, scratch));
+        return keys;
     }
 }
 
-// -------------------- Library.java --------------------
-import java.util.ArrayList;
+// -------------------- LibraryServer.java --------------------
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 
-public class Library {
-    private final List<Book> books = new ArrayList<>();
-    private final List<User> users = new ArrayList<>();
+/*
+ * Line-protocol network front end for a Library.
+ *
+ * Requests are one UTF-8 line each; responses are "OK ..." or "ERR message", and
+ * list responses are "OK n" followed by n book lines:
+ *   PING
+ *   FIND isbn
+ *   SEARCH offset limit words...      ranked keyword search
+ *   LIST offset limit                 available books
+ *   BORROW userId isbn[,isbn...]      all-or-nothing checkout; "OK due yyyy-mm-dd"
+ *   RETURN userId isbn[,isbn...]
+ *   REGISTER userId name...
+ *   QUIT
+ *
+ * An acceptor thread hands connections to a few event loops, each a selector
+ * that reads, runs and answers requests itself. A client may pipeline: every
+ * complete line in a read is handled in order and the answers go out together.
+ * When a batch changed the library, the journal is synced once before its answers
+ * are sent (group commit). A client that stops reading stops being read once a
+ * megabyte of answers is waiting for it.
+ *
+ * Lookups, searches, borrows and returns run concurrently under the read side of
+ * catalogLock (Library stripes borrow/return itself); registering a user and
+ * snapshotting the journal take the write side.
+ */
+public class LibraryServer implements AutoCloseable {
+    private static final int MAX_LINE = 8 << 10;
+    private static final int MAX_PENDING_OUTPUT = 1 << 20;
+    private static final int MAX_PAGE = 1000;
 
-    // Book operations
-    public void addBook(Book b) {
-        if (findBookByIsbn(b.getIsbn()) != null) {
-            throw new IllegalArgumentException("A book with same ISBN already exists: " + b.getIsbn());
+    private final Library library;
+    private final LibraryJournal journal; // null when changes are not saved
+    private final ReentrantReadWriteLock catalogLock = new ReentrantReadWriteLock();
+    private final ServerSocketChannel server;
+    private final EventLoop[] loops;
+    private final Thread acceptor;
+    private volatile boolean running = true;
+
+    public LibraryServer(Library library, LibraryJournal journal, int port, int loopCount) throws IOException {
+        this.library = library;
+        this.journal = journal;
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port), 4096);
+        loops = new EventLoop[Math.max(1, loopCount)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop();
+            Thread t = new Thread(loops[i], "library-loop-" + i);
+            t.setDaemon(true);
+            t.start();
         }
-        books.add(b);
+        acceptor = new Thread(this::acceptLoop, "library-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
     }
 
-    public boolean removeBook(String isbn) {
-        Book b = findBookByIsbn(isbn);
-        if (b == null) return false;
-        if (b.isBorrowed()) throw new IllegalStateException("Cannot remove a borrowed book");
-        return books.remove(b);
+    public int port() {
+        return server.socket().getLocalPort();
     }
 
-    public Book findBookByIsbn(String isbn) {
-        for (Book b : books) if (b.getIsbn().equals(isbn)) return b;
-        return null;
+    private void acceptLoop() {
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel client = server.accept();
+                client.configureBlocking(false);
+                client.socket().setTcpNoDelay(true);
+                loops[next++ % loops.length].add(client);
+            } catch (IOException e) {
+                if (running) System.err.println("Accept failed: " + e.getMessage());
+            }
+        }
     }
 
-    public List<Book> searchByTitle(String q) {
-        String lower = q.toLowerCase();
-        return books.stream()
-                .filter(b -> b.getTitle().toLowerCase().contains(lower))
-                .collect(Collectors.toList());
+    @Override
+    public void close() throws IOException {
+        running = false;
+        server.close();
+        for (EventLoop loop : loops) loop.selector.wakeup();
     }
 
-    public List<Book> getAllBooks() { return new ArrayList<>(books); }
-    public List<Book> getAvailableBooks() {
-        return books.stream().filter(b -> !b.isBorrowed()).collect(Collectors.toList());
-    }
-    public List<Book> getBorrowedBooks() {
-        return books.stream().filter(Book::isBorrowed).collect(Collectors.toList());
-    }
+    // One selector thread and the connections assigned to it
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> incoming = new ConcurrentLinkedQueue<>();
 
-    // User operations
-    public void registerUser(User u) {
-        if (findUserById(u.getUserId()) != null) throw new IllegalArgumentException("User already exists: " + u.getUserId());
-        users.add(u);
-    }
+        EventLoop() throws IOException {
+            selector = Selector.open();
+        }
 
-    public boolean removeUser(String userId) {
-        User u = findUserById(userId);
-        if (u == null) return false;
-        if (!u.getBorrowedIsbns().isEmpty()) throw new IllegalStateException("User has borrowed books");
-        return users.remove(u);
+        void add(SocketChannel client) {
+            incoming.add(client);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    for (SocketChannel client; (client = incoming.poll()) != null; ) {
+                        try {
+                            client.register(selector, SelectionKey.OP_READ, new Connection(client));
+                        } catch (ClosedChannelException e) {
+                            // client went away before it was registered
+                        }
+                    }
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        Connection c = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) c.read(key);
+                            if (key.isValid() && key.isWritable()) c.write(key);
+                        } catch (IOException | RuntimeException e) {
+                            c.close(key);
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                }
+            } catch (IOException e) {
+                System.err.println("Event loop stopped: " + e.getMessage());
+            } finally {
+                for (SelectionKey key : selector.keys()) ((Connection) key.attachment()).close(key);
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                    // nothing left to release
+                }
+            }
+        }
     }
 
-    public User findUserById(String userId) {
-        for (User u : users) if (u.getUserId().equals(userId)) return u;
-        return null;
+    private final class Connection {
+        private final SocketChannel channel;
+        private final ByteBuffer in = ByteBuffer.allocate(MAX_LINE);
+        private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        private long pendingOutput;
+        private boolean closeAfterWrite;
+        private final StringBuilder response = new StringBuilder(256);
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void read(SelectionKey key) throws IOException {
+            int n = channel.read(in);
+            if (n < 0) {
+                close(key);
+                return;
+            }
+            in.flip();
+            boolean changed = false;
+            int lineStart = in.position();
+            for (int i = lineStart; i < in.limit() && !closeAfterWrite; i++) {
+                if (in.get(i) != '\n') continue;
+                int end = i > lineStart && in.get(i - 1) == '\r' ? i - 1 : i;
+                String line = new String(in.array(), lineStart, end - lineStart, StandardCharsets.UTF_8);
+                changed |= handle(line, response);
+                lineStart = i + 1;
+            }
+            in.position(closeAfterWrite ? in.limit() : lineStart);
+            in.compact();
+            if (!in.hasRemaining()) {
+                response.append("ERR line too long\n");
+                closeAfterWrite = true;
+            }
+            if (response.length() > 0) {
+                // The answers may only promise what is already durable
+                if (changed && journal != null) journal.sync();
+                ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(response));
+                response.setLength(0);
+                out.add(bytes);
+                pendingOutput += bytes.remaining();
+                write(key);
+            }
+        }
+
+        void write(SelectionKey key) throws IOException {
+            while (!out.isEmpty()) {
+                ByteBuffer head = out.peek();
+                pendingOutput -= channel.write(head);
+                if (head.hasRemaining()) break;
+                out.poll();
+            }
+            if (out.isEmpty() && closeAfterWrite) {
+                close(key);
+                return;
+            }
+            int ops = out.isEmpty() ? 0 : SelectionKey.OP_WRITE;
+            if (pendingOutput < MAX_PENDING_OUTPUT && !closeAfterWrite) ops |= SelectionKey.OP_READ;
+            key.interestOps(ops);
+        }
+
+        void close(SelectionKey key) {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // already gone
+            }
+        }
+
+        // Runs one request and appends its answer; returns true if the library changed
+        private boolean handle(String line, StringBuilder res) {
+            String[] parts = line.trim().split(" ", 2);
+            String rest = parts.length > 1 ? parts[1].trim() : "";
+            try {
+                switch (parts[0].toUpperCase()) {
+                    case "PING":
+                        res.append("OK\n");
+                        return false;
+                    case "FIND":
+                        find(rest, res);
+                        return false;
+                    case "SEARCH": {
+                        String[] args = split(rest, 3);
+                        int offset = number(args[0]), limit = Math.min(MAX_PAGE, number(args[1]));
+                        List<Book> books = underReadLock(() -> library.search(args[2], offset, limit));
+                        appendBooks(books, res);
+                        return false;
+                    }
+                    case "LIST": {
+                        String[] args = split(rest, 2);
+                        int offset = number(args[0]), limit = Math.min(MAX_PAGE, number(args[1]));
+                        StringBuilder lines = new StringBuilder();
+                        int count = underReadLock(() -> {
+                            int n = 0;
+                            for (Book b : library.availableBooks(offset, limit)) {
+                                library.appendBook(b.getSlot(), lines);
+                                lines.append('\n');
+                                n++;
+                            }
+                            return n;
+                        });
+                        res.append("OK ").append(count).append('\n').append(lines);
+                        return false;
+                    }
+                    case "BORROW": {
+                        String[] args = split(rest, 2);
+                        List<String> isbns = Arrays.asList(args[1].split(","));
+                        Loan loan = underReadLock(() -> {
+                            library.checkout(args[0], isbns);
+                            return library.getLoan(isbns.get(0));
+                        });
+                        // the book may already be back if another client returned it meanwhile
+                        res.append(loan == null ? "OK" : "OK due " + loan.getDueOn()).append('\n');
+                        return true;
+                    }
+                    case "RETURN": {
+                        String[] args = split(rest, 2);
+                        List<String> isbns = Arrays.asList(args[1].split(","));
+                        underReadLock(() -> {
+                            library.checkin(args[0], isbns);
+                            return null;
+                        });
+                        res.append("OK\n");
+                        return true;
+                    }
+                    case "REGISTER": {
+                        String[] args = split(rest, 2);
+                        underWriteLock(() -> library.registerUser(new User(args[0], args[1])));
+                        res.append("OK\n");
+                        return true;
+                    }
+                    case "QUIT":
+                        res.append("OK bye\n");
+                        closeAfterWrite = true;
+                        return false;
+                    default:
+                        res.append("ERR unknown command\n");
+                        return false;
+                }
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                res.append("ERR ").append(e.getMessage()).append('\n');
+                return false;
+            }
+        }
+
+        private void find(String isbn, StringBuilder res) {
+            underReadLock(() -> {
+                Book b = library.findBookByIsbn(isbn);
+                if (b == null) {
+                    res.append("ERR Book not found: ").append(isbn).append('\n');
+                } else {
+                    res.append("OK ");
+                    library.appendBook(b.getSlot(), res);
+                    res.append('\n');
+                }
+                return null;
+            });
+        }
+
+        private void appendBooks(List<Book> books, StringBuilder res) {
+            res.append("OK ").append(books.size()).append('\n');
+            for (Book b : books) {
+                library.appendBook(b.getSlot(), res);
+                res.append('\n');
+            }
+        }
     }
 
-    public List<User> getAllUsers() { return new ArrayList<>(users); }
+    private <T> T underReadLock(Supplier<T> action) {
+        catalogLock.readLock().lock();
+        try {
+            return action.get();
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
 
-    // Borrow/Return
-    public void borrowBook(String userId, String isbn) {
-        User u = findUserById(userId);
-        if (u == null) throw new IllegalArgumentException("User not found: " + userId);
-        Book b = findBookByIsbn(isbn);
-        if (b == null) throw new IllegalArgumentException("Book not found: " + isbn);
-        if (b.isBorrowed()) throw new IllegalStateException("Book already borrowed: " + isbn);
+    private void underWriteLock(Runnable action) {
+        catalogLock.writeLock().lock();
+        try {
+            action.run();
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
 
-        b.borrow();
-        u.borrowBook(isbn);
+    // Snapshot the journal when due, with no request running
+    public void maybeSnapshot() throws IOException {
+        if (journal == null) return;
+        catalogLock.writeLock().lock();
+        try {
+            journal.maybeSnapshot();
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
     }
 
-    public void returnBook(String userId, String isbn) {
-        User u = findUserById(userId);
-        if (u == null) throw new IllegalArgumentException("User not found: " + userId);
-        Book b = findBookByIsbn(isbn);
-        if (b == null) throw new IllegalArgumentException("Book not found: " + isbn);
-        if (!b.isBorrowed()) throw new IllegalStateException("Book is not borrowed: " + isbn);
+    private static String[] split(String s, int parts) {
+        String[] res = s.split(" ", parts);
+        if (res.length < parts || res[parts - 1].isBlank()) throw new IllegalArgumentException("missing arguments");
+        return res;
+    }
 
-        boolean removed = u.returnBook(isbn);
-        if (!removed) throw new IllegalStateException("This user didn't borrow that book");
-        b.returned();
+    private static int number(String s) {
+        try {
+            int n = Integer.parseInt(s);
+            if (n < 0) throw new IllegalArgumentException("negative number: " + s);
+            return n;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("not a number: " + s);
+        }
     }
 }
 
 // -------------------- LibraryApp.java --------------------
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
+import java.util.function.IntFunction;
 
 public class LibraryApp {
-    private static final Library library = new Library();
+    private static final int PAGE_SIZE = 20;
+    private static Library library = new Library();
+    private static LibraryJournal journal; // null when changes cannot be saved
     private static final Scanner sc = new Scanner(System.in);
 
-    public static void main(String[] args) {
-        seedSampleData();
+    public static void main(String[] args) throws IOException, InterruptedException {
+        openJournal();
+        if (library.countBooks() == 0 && library.getAllUsers().isEmpty()) seedSampleData();
+        if (args.length > 0 && args[0].equals("--serve")) {
+            serve(args.length > 1 ? Integer.parseInt(args[1]) : 7070);
+            return;
+        }
         showMenu();
     }
 
+    // Serves the library over the network instead of the menu; see LibraryServer for the protocol
+    private static void serve(int port) throws IOException, InterruptedException {
+        LibraryServer server = new LibraryServer(library, journal, port, Runtime.getRuntime().availableProcessors());
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (IOException ignored) {
+                // exiting anyway
+            }
+            closeJournal();
+        }));
+        System.out.println("Serving on port " + server.port() + " (Ctrl+C to stop)");
+        while (true) {
+            Thread.sleep(10_000);
+            server.maybeSnapshot();
+        }
+    }
+
+    private static void openJournal() {
+        try {
+            journal = LibraryJournal.open(Paths.get("."), library);
+            if (library.countBooks() > 0) {
+                System.out.println("Loaded " + library.countBooks() + " book(s), " + library.getAllUsers().size()
+                        + " user(s), " + library.countLoans() + " loan(s).");
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Could not open saved library (" + e.getMessage() + "). Changes will not be saved.");
+            library = new Library();
+            journal = null;
+        }
+    }
+
+    private static void closeJournal() {
+        if (journal == null) return;
+        try {
+            journal.close();
+        } catch (IOException e) {
+            System.out.println("Error saving library: " + e.getMessage());
+        }
+    }
+
+    // Makes the changes of the last command durable before the next prompt
+    private static void persist() {
+        if (journal == null) return;
+        try {
+            journal.sync();
+            journal.maybeSnapshot();
+        } catch (IOException e) {
+            System.out.println("Error saving library: " + e.getMessage());
+        }
+    }
+
     private static void seedSampleData() {
         library.addBook(new Book("978-0134685991", "Effective Java", "Joshua Bloch"));
         library.addBook(new Book("978-0596009205", "Head First Java", "Kathy Sierra"));
@@ -218,12 +2244,15 @@ public class LibraryApp {
             System.out.println("1. List all books");
             System.out.println("2. List available books");
             System.out.println("3. Search book by title");
-            System.out.println("4. Add book");
-            System.out.println("5. Register user");
-            System.out.println("6. Borrow book");
-            System.out.println("7. Return book");
-            System.out.println("8. List users");
-            System.out.println("9. Exit");
+            System.out.println("4. Search book by author");
+            System.out.println("5. Keyword search (title/author)");
+            System.out.println("6. Add book");
+            System.out.println("7. Register user");
+            System.out.println("8. Borrow book");
+            System.out.println("9. Return book");
+            System.out.println("10. List users");
+            System.out.println("11. Overdue loans / due today");
+            System.out.println("12. Exit");
             System.out.print("Choose: ");
 
             String choice = sc.nextLine().trim();
@@ -232,30 +2261,44 @@ public class LibraryApp {
                     case "1": listAllBooks(); break;
                     case "2": listAvailableBooks(); break;
                     case "3": searchByTitle(); break;
-                    case "4": addBook(); break;
-                    case "5": registerUser(); break;
-                    case "6": borrowBook(); break;
-                    case "7": returnBook(); break;
-                    case "8": listUsers(); break;
-                    case "9": System.out.println("Bye!"); return;
+                    case "4": searchByAuthor(); break;
+                    case "5": keywordSearch(); break;
+                    case "6": addBook(); break;
+                    case "7": registerUser(); break;
+                    case "8": borrowBook(); break;
+                    case "9": returnBook(); break;
+                    case "10": listUsers(); break;
+                    case "11": listLoansDue(); break;
+                    case "12":
+                        closeJournal();
+                        System.out.println("Bye!");
+                        return;
                     default: System.out.println("Invalid choice");
                 }
             } catch (Exception e) {
                 System.out.println("Error: " + e.getMessage());
             }
+            persist();
         }
     }
 
-    private static void listAllBooks() {
-        List<Book> books = library.getAllBooks();
-        if (books.isEmpty()) System.out.println("No books in library");
-        else books.forEach(b -> System.out.println(b));
+    private static void listAllBooks() throws IOException {
+        if (library.countBooks() == 0) System.out.println("No books in library");
+        else library.printCatalog(System.out);
     }
 
     private static void listAvailableBooks() {
-        List<Book> books = library.getAvailableBooks();
-        if (books.isEmpty()) System.out.println("No available books");
-        else books.forEach(b -> System.out.println(b));
+        if (library.countAvailable() == 0) {
+            System.out.println("No available books");
+            return;
+        }
+        System.out.println(library.countAvailable() + " of " + library.countBooks() + " books available ("
+                + library.countBorrowed() + " borrowed)");
+        showPages(page -> {
+            List<Book> res = new ArrayList<>(PAGE_SIZE);
+            library.availableBooks(page * PAGE_SIZE, PAGE_SIZE).forEach(res::add);
+            return res;
+        });
     }
 
     private static void searchByTitle() {
@@ -266,6 +2309,33 @@ public class LibraryApp {
         else res.forEach(System.out::println);
     }
 
+    private static void searchByAuthor() {
+        System.out.print("Enter author query: ");
+        String q = sc.nextLine();
+        showPages(page -> library.searchByAuthor(q, page * PAGE_SIZE, PAGE_SIZE));
+    }
+
+    private static void keywordSearch() {
+        System.out.print("Enter keywords: ");
+        String q = sc.nextLine();
+        showPages(page -> library.search(q, page * PAGE_SIZE, PAGE_SIZE));
+    }
+
+    // Prints one page of results at a time until the user stops or results run out
+    private static void showPages(IntFunction<List<Book>> pageLoader) {
+        for (int page = 0; ; page++) {
+            List<Book> res = pageLoader.apply(page);
+            if (res.isEmpty()) {
+                System.out.println(page == 0 ? "No matches found" : "No more results");
+                return;
+            }
+            res.forEach(System.out::println);
+            if (res.size() < PAGE_SIZE) return;
+            System.out.print("Show next page? (y/n): ");
+            if (!sc.nextLine().trim().equalsIgnoreCase("y")) return;
+        }
+    }
+
     private static void addBook() {
         System.out.print("ISBN: ");
         String isbn = sc.nextLine().trim();
@@ -292,7 +2362,7 @@ public class LibraryApp {
         System.out.print("Book ISBN: ");
         String isbn = sc.nextLine().trim();
         library.borrowBook(uid, isbn);
-        System.out.println("Book borrowed.");
+        System.out.println("Book borrowed, due " + library.getLoan(isbn).getDueOn() + ".");
     }
 
     private static void returnBook() {
@@ -304,9 +2374,577 @@ public class LibraryApp {
         System.out.println("Book returned.");
     }
 
+    private static void listLoansDue() {
+        List<Loan> overdue = library.overdueLoans();
+        List<Loan> dueToday = library.loansDueToday();
+        System.out.println(overdue.size() + " overdue, " + dueToday.size() + " due today");
+        overdue.forEach(l -> System.out.println("OVERDUE " + l));
+        dueToday.forEach(l -> System.out.println("DUE     " + l));
+    }
+
     private static void listUsers() {
         List<User> users = library.getAllUsers();
         if (users.isEmpty()) System.out.println("No users");
         else users.forEach(u -> System.out.println(u));
     }
 }
+
+// -------------------- LibraryBenchmark.java --------------------
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+
+// Drives the Library core without the menu.
+// Usage: java LibraryBenchmark [sizes, e.g. 1000,100000,10000000]
+//        java LibraryBenchmark --stress [books]
+//        java LibraryBenchmark --restart [books]
+//        java LibraryBenchmark --memory [books]
+public class LibraryBenchmark {
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        if (args.length > 0 && args[0].equals("--stress")) {
+            stress(args.length > 1 ? Integer.parseInt(args[1]) : 10_000);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--restart")) {
+            restart(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--memory")) {
+            memory(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000);
+            return;
+        }
+        for (int size : Bench.sizes(args, 0)) {
+            Library library = new Library();
+            for (int i = 0; i < size; i++) {
+                library.addBook(new Book(isbn(i), "Title " + i, "Author " + (i % 1000)));
+            }
+            int userCount = Math.max(1, size / 10);
+            for (int i = 0; i < userCount; i++) library.registerUser(new User("u" + i, "User " + i));
+
+            Random random = new Random(42);
+            String[] isbns = new String[1024], userIds = new String[1024], queries = new String[1024];
+            for (int i = 0; i < isbns.length; i++) {
+                int b = random.nextInt(size);
+                isbns[i] = isbn(b);
+                userIds[i] = "u" + random.nextInt(userCount);
+                queries[i] = "title " + b;
+            }
+
+            int ops = Bench.opsFor(size);
+            Bench.run("findBookByIsbn", size, ops, i -> Bench.sink += library.findBookByIsbn(isbns[i & 1023]).hashCode());
+            Bench.run("searchByTitle", size, Math.max(20, ops / 10),
+                    i -> Bench.sink += library.searchByTitle(queries[i & 1023]).size());
+            // borrow followed by return keeps the catalog state unchanged between iterations
+            Bench.run("borrowBook+returnBook", size, ops, i -> {
+                library.borrowBook(userIds[i & 1023], isbns[i & 1023]);
+                library.returnBook(userIds[i & 1023], isbns[i & 1023]);
+            });
+            Bench.run("availableBooks page 3", size, 200_000, i -> {
+                for (Book b : library.availableBooks(40, 20)) Bench.sink += b.getSlot();
+            });
+            benchLoans(size, userCount);
+        }
+    }
+
+    /*
+     * One in ten users holds a book, borrowed on one of 100 consecutive days, so
+     * about 1% of all loans fall due on any given day. The sweep and due-today
+     * queries should cost in proportion to what they return, not to the user count.
+     */
+    static void benchLoans(int size, int userCount) {
+        ManualClock clock = new ManualClock(LocalDate.of(2024, 1, 1));
+        Library library = new Library(clock, 14);
+        int loans = Math.min(size, Math.max(1, userCount / 10));
+        for (int i = 0; i < loans; i++) library.addBook(new Book(isbn(i), "Title " + i, "Author " + i));
+        for (int i = 0; i < userCount; i++) library.registerUser(new User("u" + i, "User " + i));
+        for (int i = 0; i < loans; i++) {
+            clock.day = LocalDate.of(2024, 1, 1).plusDays(i % 100);
+            library.borrowBook("u" + (i * 10 % userCount), isbn(i));
+        }
+        LocalDate sweepDay = LocalDate.of(2024, 1, 16); // loans from the first day are overdue
+        LocalDate dueDay = LocalDate.of(2024, 2, 14);
+        Bench.run("overdueLoans (" + library.overdueLoans(sweepDay).size() + ")", userCount, 20_000,
+                i -> Bench.sink += library.overdueLoans(sweepDay).size());
+        Bench.run("loansDueOn (" + library.loansDueOn(dueDay).size() + ")", userCount, 20_000,
+                i -> Bench.sink += library.loansDueOn(dueDay).size());
+    }
+
+    /*
+     * Saves a catalog of the given size as a snapshot plus a log tail of 10,000
+     * changes, then times recovery into a fresh Library: until lookups are
+     * available, and until the background search index is ready.
+     */
+    static void restart(int size) throws IOException {
+        Path dir = Files.createTempDirectory("library-restart");
+        try {
+            Library library = new Library();
+            try (LibraryJournal journal = LibraryJournal.open(dir, library)) {
+                for (int i = 0; i < size; i++) library.addBook(new Book(isbn(i), "Title " + i, "Author " + (i % 1000)));
+                int userCount = Math.max(1, size / 10);
+                for (int i = 0; i < userCount; i++) library.registerUser(new User("u" + i, "User " + i));
+                for (int i = 0; i < size / 100; i++) library.borrowBook("u" + (i % userCount), isbn(i * 100));
+                journal.snapshot();
+                for (int i = 0; i < 5_000; i++) {
+                    library.addBook(new Book("tail-" + i, "Tail " + i, "Author"));
+                    library.borrowBook("u" + (i % userCount), "tail-" + i);
+                }
+            }
+            System.out.printf("snapshot %d MB, log %d KB%n", Files.size(dir.resolve(LibraryJournal.SNAPSHOT_FILE)) >> 20,
+                    Files.size(dir.resolve(LibraryJournal.LOG_FILE)) >> 10);
+            library = null;
+            System.gc();
+
+            long start = System.nanoTime();
+            Library restored = new Library();
+            LibraryJournal journal = LibraryJournal.open(dir, restored);
+            try {
+                long ready = System.nanoTime();
+                Bench.sink += restored.findBookByIsbn(isbn(size / 2)).hashCode();
+                System.out.printf("restored %d books, %d users, %d loans: lookups ready in %.2fs",
+                        restored.countBooks(), restored.getAllUsers().size(), restored.countLoans(), (ready - start) / 1e9);
+                Bench.sink += restored.searchByTitle("title " + (size - 1)).size();
+                System.out.printf(", search ready in %.2fs%n", (System.nanoTime() - start) / 1e9);
+            } finally {
+                journal.close();
+            }
+        } finally {
+            for (String name : new String[] { LibraryJournal.LOG_FILE, LibraryJournal.SNAPSHOT_FILE }) {
+                Files.deleteIfExists(dir.resolve(name));
+            }
+            Files.delete(dir);
+        }
+    }
+
+    /*
+     * Heap held by a catalog, measured as live heap after GC: one Book object with
+     * its own strings per book in an ISBN-keyed LinkedHashMap (how Library kept
+     * books before the column store) against the CatalogStore columns. The search
+     * index is the same for both and is left out.
+     */
+    static void memory(int size) {
+        long base = usedHeap();
+        Map<String, Book> objects = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) objects.put(isbn(i), new Book(isbn(i), "Title " + i, "Author " + (i % 1000)));
+        long objectBytes = usedHeap() - base;
+        Bench.sink += objects.size();
+        objects = null;
+
+        base = usedHeap();
+        CatalogStore store = new CatalogStore();
+        for (int i = 0; i < size; i++) store.add(isbn(i), "Title " + i, "Author " + (i % 1000));
+        long storeBytes = usedHeap() - base;
+        Bench.sink += store.size();
+        System.out.printf("books=%d  Book objects: %.1f B/book  column store: %.1f B/book (footprint %.1f)  %.1fx smaller%n",
+                size, (double) objectBytes / size, (double) storeBytes / size, (double) store.footprint() / size,
+                (double) objectBytes / storeBytes);
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            used = Math.min(used, rt.totalMemory() - rt.freeMemory());
+        }
+        return used;
+    }
+
+    // Clock for the benchmark that stays on a chosen day
+    static final class ManualClock extends Clock {
+        LocalDate day;
+
+        ManualClock(LocalDate day) { this.day = day; }
+
+        @Override public ZoneId getZone() { return ZoneOffset.UTC; }
+        @Override public Clock withZone(ZoneId zone) { return this; }
+        @Override public Instant instant() { return day.atStartOfDay(ZoneOffset.UTC).toInstant(); }
+    }
+
+    static String isbn(int i) {
+        return String.format("978-%010d", i);
+    }
+
+    /*
+     * Concurrent borrow/return. Each thread picks random users and one to three
+     * books, checks them out as one unit and later returns them. Pass 1 runs a
+     * fixed number of rounds on 1, 2, 4 ... 64 threads and reports throughput.
+     * After each run the checks below must hold: every borrowed book is held by
+     * exactly one user, and the counts and lists agree with the books' flags.
+     */
+    static void stress(int bookCount) throws InterruptedException {
+        Library library = new Library();
+        String[] isbns = new String[bookCount];
+        for (int i = 0; i < bookCount; i++) {
+            isbns[i] = isbn(i);
+            library.addBook(new Book(isbns[i], "Title " + i, "Author " + (i % 100)));
+        }
+        int userCount = Math.max(1, bookCount / 10);
+        for (int i = 0; i < userCount; i++) library.registerUser(new User("u" + i, "User " + i));
+
+        final int rounds = 400_000;
+        for (int threads = 1; threads <= 64; threads *= 2) {
+            AtomicLong completed = new AtomicLong(), conflicts = new AtomicLong();
+            Thread[] workers = new Thread[threads];
+            int share = rounds / threads;
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    List<String> held = new ArrayList<>();
+                    String holder = null;
+                    for (int r = 0; r < share; r++) {
+                        if (holder != null) {
+                            library.checkin(holder, held);
+                            held.clear();
+                            holder = null;
+                            completed.incrementAndGet();
+                            continue;
+                        }
+                        String userId = "u" + random.nextInt(userCount);
+                        Set<String> wanted = new HashSet<>();
+                        for (int k = 1 + random.nextInt(3); k > 0; k--) wanted.add(isbns[random.nextInt(bookCount)]);
+                        try {
+                            library.checkout(userId, wanted);
+                            held.addAll(wanted);
+                            holder = userId;
+                            completed.incrementAndGet();
+                        } catch (IllegalStateException e) {
+                            conflicts.incrementAndGet();
+                        }
+                    }
+                    if (holder != null) library.checkin(holder, held);
+                });
+                workers[t].start();
+            }
+            for (Thread w : workers) w.join();
+            long elapsed = System.nanoTime() - start;
+            verify(library, isbns);
+            System.out.printf("threads=%-3d %12.0f ops/s  conflicts=%-8d invariants OK%n",
+                    threads, completed.get() * 1e9 / elapsed, conflicts.get());
+        }
+    }
+
+    private static void verify(Library library, String[] isbns) {
+        Set<String> held = new HashSet<>();
+        for (User u : library.getAllUsers()) {
+            for (String isbn : u.getBorrowedIsbns()) {
+                if (!held.add(isbn)) throw new AssertionError("Book held by two users: " + isbn);
+                if (!library.findBookByIsbn(isbn).isBorrowed()) throw new AssertionError("Held but not borrowed: " + isbn);
+                if (library.findHolder(isbn) != u) throw new AssertionError("Ledger disagrees on holder: " + isbn);
+            }
+        }
+        int borrowed = 0;
+        for (String isbn : isbns) if (library.findBookByIsbn(isbn).isBorrowed()) borrowed++;
+        if (borrowed != held.size() || library.countLoans() != borrowed) throw new AssertionError("Borrowed " + borrowed + " but held " + held.size());
+        if (library.countBorrowed() != borrowed || library.countAvailable() != isbns.length - borrowed
+                || library.getBorrowedBooks().size() != borrowed) {
+            throw new AssertionError("Availability counts out of step");
+        }
+    }
+
+    // Benchmark harness, kept byte-identical in every app of this repository since each app compiles on its own
+    static final class Bench {
+        private static final com.sun.management.ThreadMXBean THREADS =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        static volatile long sink; // keeps benchmarked results alive
+        static java.io.PrintStream report = System.out; // results go here, so an app may silence System.out
+
+        /*
+         * Warm-up, then throughput, latency percentiles and bytes allocated per op.
+         * Ops that take under about 10us are timed in batches so the clock reads do not
+         * swamp them; their percentiles are of per-batch mean latency, which hides the
+         * tail, and are labelled "batch-mean". Slower ops are timed one at a time ("per-op").
+         */
+        static void run(String name, int size, int ops, IntConsumer op) {
+            int warmup = Math.min(ops, 50_000), half = warmup / 2;
+            for (int i = 0; i < half; i++) op.accept(i);
+            long warmupStart = System.nanoTime();
+            for (int i = half; i < warmup; i++) op.accept(i);
+            long estimate = Math.max(1, (System.nanoTime() - warmupStart) / Math.max(1, warmup - half));
+            int batch = (int) Math.max(1, Math.min(Math.max(1, ops / 100), 10_000 / estimate));
+            int batches = (ops + batch - 1) / batch;
+            double[] latencies = new double[batches];
+            long allocated = THREADS.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            for (int b = 0, i = 0; b < batches; b++) {
+                int end = Math.min(ops, i + batch), count = end - i;
+                long t = System.nanoTime();
+                for (; i < end; i++) op.accept(i);
+                latencies[b] = (double) (System.nanoTime() - t) / count;
+            }
+            long elapsed = System.nanoTime() - start;
+            allocated = THREADS.getCurrentThreadAllocatedBytes() - allocated;
+            Arrays.sort(latencies);
+            report.printf("%-26s size=%-9d %13.0f ops/s  %-10s p50=%8.0fns  p99=%9.0fns  p99.9=%10.0fns  %9.1f B/op%n",
+                    name, size, ops * 1e9 / elapsed, batch > 1 ? "batch-mean" : "per-op", latencies[batches / 2],
+                    latencies[(int) (batches * 0.99)], latencies[(int) (batches * 0.999)], (double) allocated / ops);
+        }
+
+        // Operation count for an O(size) operation, so each benchmark runs in about a second
+        static int opsFor(int size) {
+            return (int) Math.max(200, Math.min(200_000, 200_000_000L / size));
+        }
+
+        // Comma-separated sizes from args[at], or the defaults
+        static int[] sizes(String[] args, int at) {
+            if (args.length <= at) return new int[] { 1_000, 100_000, 1_000_000 };
+            return Arrays.stream(args[at].split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+        }
+    }
+}
+
+// -------------------- LibraryLoadGenerator.java --------------------
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * Load generator for LibraryServer: many kiosk clients on one selector thread,
+ * each keeping a fixed number of requests in flight. The mix is 50% FIND, 20%
+ * SEARCH, 10% LIST and 20% BORROW/RETURN (each client returns what it borrowed).
+ * Reports throughput and latency percentiles per request type.
+ *
+ * Usage: java LibraryLoadGenerator [clients] [seconds] [pipeline] [host:port]
+ * Without host:port it starts a server in-process on a 100,000-book catalog.
+ */
+public class LibraryLoadGenerator {
+    private static final String[] TYPES = { "FIND", "SEARCH", "LIST", "BORROW", "RETURN" };
+    private static final int FIND = 0, SEARCH = 1, LIST = 2, BORROW = 3, RETURN = 4;
+
+    public static void main(String[] args) throws IOException {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int pipeline = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        LibraryServer local = null;
+        InetSocketAddress address;
+        if (args.length > 3) {
+            String[] hostPort = args[3].split(":");
+            address = new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1]));
+        } else {
+            Library library = new Library();
+            for (int i = 0; i < 100_000; i++) {
+                library.addBook(new Book(LibraryBenchmark.isbn(i), "Title " + i, "Author " + (i % 1000)));
+            }
+            local = new LibraryServer(library, null, 0, Runtime.getRuntime().availableProcessors());
+            address = new InetSocketAddress("localhost", local.port());
+        }
+        try {
+            List<String> isbns = prepare(address, clients);
+            System.out.printf("%d clients, pipeline %d, %d books known, %ds against %s%n",
+                    clients, pipeline, isbns.size(), seconds, address);
+            new LibraryLoadGenerator(isbns).run(address, clients, pipeline, seconds * 1_000_000_000L);
+        } finally {
+            if (local != null) local.close();
+        }
+    }
+
+    // Registers the client users and learns some ISBNs, over a plain blocking socket
+    private static List<String> prepare(InetSocketAddress address, int clients) throws IOException {
+        List<String> isbns = new ArrayList<>();
+        try (Socket socket = new Socket(address.getHostString(), address.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            StringBuilder batch = new StringBuilder();
+            for (int i = 0; i < clients; i++) batch.append("REGISTER kiosk").append(i).append(" Kiosk ").append(i).append('\n');
+            batch.append("LIST 0 1000\n");
+            out.write(batch.toString().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            for (int i = 0; i < clients; i++) in.readLine(); // OK, or ERR when already registered
+            int n = Integer.parseInt(in.readLine().substring(3));
+            for (int i = 0; i < n; i++) {
+                String line = in.readLine();
+                isbns.add(line.substring(1, line.indexOf(']')));
+            }
+        }
+        if (isbns.isEmpty()) throw new IllegalStateException("Server has no available books");
+        return isbns;
+    }
+
+    private final List<String> isbns;
+    private final Random random = new Random(42);
+    private final long[][] latencies = new long[TYPES.length][];
+    private final int[] counts = new int[TYPES.length];
+    private long errors;
+
+    private LibraryLoadGenerator(List<String> isbns) {
+        this.isbns = isbns;
+        for (int i = 0; i < TYPES.length; i++) latencies[i] = new long[1 << 16];
+    }
+
+    // One simulated kiosk
+    private final class Client {
+        final SocketChannel channel;
+        final String userId;
+        final ByteBuffer in = ByteBuffer.allocate(1 << 16);
+        final ByteBuffer out = ByteBuffer.allocate(1 << 12);
+        final ArrayDeque<long[]> inFlight = new ArrayDeque<>(); // {type, sent nanos}
+        int listLinesLeft = -1;   // book lines still expected for the current SEARCH/LIST
+        String held;              // ISBN this client has borrowed
+        boolean loanRequested;    // a BORROW or RETURN is in flight
+
+        Client(SocketChannel channel, String userId) {
+            this.channel = channel;
+            this.userId = userId;
+        }
+
+        void send() {
+            int type;
+            String line;
+            int roll = random.nextInt(100);
+            if (roll < 20 && !loanRequested) {
+                type = held == null ? BORROW : RETURN;
+                if (type == BORROW) held = isbns.get(random.nextInt(isbns.size()));
+                line = TYPES[type] + " " + userId + " " + held;
+                loanRequested = true;
+            } else if (roll < 40) {
+                type = SEARCH;
+                line = "SEARCH 0 10 " + random.nextInt(100_000); // a title number: one or few matches
+            } else if (roll < 50) {
+                type = LIST;
+                line = "LIST " + random.nextInt(1000) + " 20";
+            } else {
+                type = FIND;
+                line = "FIND " + isbns.get(random.nextInt(isbns.size()));
+            }
+            out.put((line + "\n").getBytes(StandardCharsets.UTF_8));
+            inFlight.add(new long[] { type, System.nanoTime() });
+        }
+
+        // Consumes complete response lines; returns how many requests finished
+        int receive() {
+            in.flip();
+            int finished = 0;
+            int start = in.position();
+            for (int i = start; i < in.limit(); i++) {
+                if (in.get(i) != '\n') continue;
+                String line = new String(in.array(), start, i - start, StandardCharsets.UTF_8);
+                start = i + 1;
+                if (listLinesLeft > 0) {
+                    listLinesLeft--;
+                } else {
+                    long[] request = inFlight.peek();
+                    int type = (int) request[0];
+                    if (line.startsWith("ERR")) {
+                        errors++;
+                        if (type == BORROW) held = null; // someone else has it
+                    } else if (type == SEARCH || type == LIST) {
+                        listLinesLeft = Integer.parseInt(line.substring(3));
+                    } else if (type == RETURN) {
+                        held = null;
+                    }
+                    if (type == BORROW || type == RETURN) loanRequested = false;
+                }
+                if (listLinesLeft <= 0) {
+                    long[] request = inFlight.poll();
+                    record((int) request[0], System.nanoTime() - request[1]);
+                    listLinesLeft = -1;
+                    finished++;
+                }
+            }
+            in.position(start);
+            in.compact();
+            return finished;
+        }
+    }
+
+    private void record(int type, long nanos) {
+        if (counts[type] == latencies[type].length) latencies[type] = Arrays.copyOf(latencies[type], counts[type] * 2);
+        latencies[type][counts[type]++] = nanos;
+    }
+
+    private void run(InetSocketAddress address, int clientCount, int pipeline, long durationNanos) throws IOException {
+        try (Selector selector = Selector.open()) {
+            List<Client> clients = new ArrayList<>();
+            for (int i = 0; i < clientCount; i++) {
+                SocketChannel channel = SocketChannel.open(address);
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                Client c = new Client(channel, "kiosk" + i);
+                channel.register(selector, SelectionKey.OP_READ, c);
+                clients.add(c);
+            }
+            long start = System.nanoTime();
+            for (Client c : clients) {
+                for (int i = 0; i < pipeline; i++) c.send();
+                flush(c);
+            }
+            while (System.nanoTime() - start < durationNanos) {
+                selector.select(100);
+                for (SelectionKey key : selector.selectedKeys()) {
+                    Client c = (Client) key.attachment();
+                    if (key.isReadable()) {
+                        if (c.channel.read(c.in) < 0) throw new IOException("Server closed a connection");
+                        for (int done = c.receive(); done > 0; done--) c.send();
+                    }
+                    flush(c);
+                    key.interestOps(SelectionKey.OP_READ | (c.out.position() > 0 ? SelectionKey.OP_WRITE : 0));
+                }
+                selector.selectedKeys().clear();
+            }
+            long elapsed = System.nanoTime() - start;
+            for (Client c : clients) c.channel.close();
+            report(elapsed);
+        }
+    }
+
+    private static void flush(Client c) throws IOException {
+        c.out.flip();
+        c.channel.write(c.out);
+        c.out.compact();
+    }
+
+    private void report(long elapsed) {
+        long total = 0;
+        long[] all = new long[0];
+        for (int type = 0; type < TYPES.length; type++) {
+            long[] sorted = Arrays.copyOf(latencies[type], counts[type]);
+            Arrays.sort(sorted);
+            total += sorted.length;
+            if (sorted.length > 0) printLine(TYPES[type], sorted, elapsed);
+            int from = all.length;
+            all = Arrays.copyOf(all, from + sorted.length);
+            System.arraycopy(sorted, 0, all, from, sorted.length);
+        }
+        Arrays.sort(all);
+        if (total > 0) printLine("ALL", all, elapsed);
+        System.out.printf("%d requests, %d errors (ERR answers, e.g. book already borrowed)%n", total, errors);
+    }
+
+    private static void printLine(String name, long[] sorted, long elapsed) {
+        int n = sorted.length;
+        System.out.printf("%-7s %10.0f req/s  p50=%7.2fms  p99=%7.2fms  p99.9=%7.2fms  max=%7.2fms%n", name,
+                n * 1e9 / elapsed, sorted[n / 2] / 1e6, sorted[(int) (n * 0.99)] / 1e6,
+                sorted[(int) (n * 0.999)] / 1e6, sorted[n - 1] / 1e6);
+    }
+}
@@ -1,13 +1,86 @@
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Random;
 import java.util.Scanner;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 public class NotesApp {
 
-    private static final String FILE_NAME = "notes.txt";
+    private static final String FILE_NAME = "notes.txt"; // plain-text notes from earlier versions, imported once
+    private static final int PAGE_SIZE = 20;
+    private static final FileChannel STDOUT = new FileOutputStream(FileDescriptor.out).getChannel();
     private static Scanner sc = new Scanner(System.in);
+    private static NoteLog notes;
+    private static NoteSearch search;
+    private static NoteWriter writer;
 
     public static void main(String[] args) {
 
+        if (args.length > 0 && args[0].equals("--bench")) {
+            runBenchmarks(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--follow")) {
+            follow(args);
+            return;
+        }
+
+        try {
+            notes = NoteLog.open(Paths.get(NoteLog.DIR), NoteLog.SyncPolicy.GROUP);
+            importLegacyNotes();
+            search = NoteSearch.open(notes);
+            writer = new NoteWriter(notes);
+        } catch (IOException e) {
+            System.out.println("Could not open notes: " + e.getMessage());
+            return;
+        }
+
         int choice;
 
         do {
@@ -15,7 +88,8 @@ public class NotesApp {
             System.out.println("1. Create/Overwrite Note");
             System.out.println("2. Append to Note");
             System.out.println("3. View Notes");
-            System.out.println("4. Exit");
+            System.out.println("4. Search Notes");
+            System.out.println("5. Exit");
             System.out.print("Enter your choice: ");
 
             choice = Integer.parseInt(sc.nextLine());
@@ -24,12 +98,94 @@ public class NotesApp {
                 case 1 -> createNote();
                 case 2 -> appendNote();
                 case 3 -> viewNotes();
-                case 4 -> System.out.println("Exiting... Goodbye!");
+                case 4 -> searchNotes();
+                case 5 -> System.out.println("Exiting... Goodbye!");
                 default -> System.out.println("Invalid choice. Try again.");
             }
 
-        } while (choice != 4);
+        } while (choice != 5);
+
+        try {
+            writer.close();
+            search.close();
+            notes.close();
+        } catch (IOException e) {
+            System.out.println("Error closing notes: " + e.getMessage());
+        }
+    }
+
+    /*
+     * Usage: java NotesApp_task4.java --follow [position | end]
+     * Prints entries as they are appended, by this app or any other process, as
+     * "<next position><TAB><text>"; pass the last printed position to resume there.
+     * Starts at the end of the log unless a position is given (0 for everything).
+     */
+    private static void follow(String[] args) {
+        long from = args.length < 2 || args[1].equals("end") ? NoteFeed.FROM_END : Long.parseLong(args[1]);
+        try (NoteFeed feed = NoteFeed.open(Paths.get(NoteLog.DIR))) {
+            feed.subscribe(from, new NoteFeed.Subscriber() {
+                @Override
+                public void onEntry(NoteFeed.Entry entry) {
+                    System.out.println(entry.next + "\t" + entry.text);
+                }
 
+                @Override
+                public void onReset(long position) {
+                    System.err.println("Notes were truncated; following again from position " + position);
+                }
+            });
+            System.err.println("Following " + NoteLog.DIR + " (Ctrl+C to stop)...");
+            Thread.currentThread().join();
+        } catch (IOException e) {
+            System.out.println("Could not follow notes: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * Notes kept in notes.txt by earlier versions become the first entries of the
+     * log: the first line as an overwrite and every later line as an append, the shape
+     * the old createNote and appendNote gave the file. It is read in the platform
+     * charset the old FileWriter wrote it in, streamed and synced once at the end, so
+     * its size does not matter. A line too long for one entry is split over several.
+     *
+     * A marker file is created first and removed only once the import is synced and
+     * notes.txt renamed to notes.txt.imported. A run that finds the marker imports
+     * again; the leading overwrite replaces whatever the interrupted run left.
+     */
+    private static void importLegacyNotes() throws IOException {
+        Path legacy = Paths.get(FILE_NAME);
+        Path marker = Paths.get(FILE_NAME + ".importing");
+        boolean interrupted = Files.exists(marker);
+        if (!Files.exists(legacy)) {
+            Files.deleteIfExists(marker); // renamed, but the marker was not yet removed
+            return;
+        }
+        if (!interrupted && !notes.isEmpty()) return;
+        if (!interrupted) Files.write(marker, new byte[0], StandardOpenOption.CREATE, StandardOpenOption.SYNC);
+        int maxChars = (NoteLog.MAX_TEXT - 4) / 3; // a UTF-16 char never takes more than 3 UTF-8 bytes
+        StringBuilder line = new StringBuilder();
+        char[] chunk = new char[8192];
+        long entries = 0, seq = -1;
+        try (Reader in = new BufferedReader(new InputStreamReader(Files.newInputStream(legacy), Charset.defaultCharset()))) {
+            for (int n; (n = in.read(chunk)) >= 0; ) {
+                for (int i = 0; i < n; i++) {
+                    char c = chunk[i];
+                    if (c == '\n' || (line.length() >= maxChars && !Character.isLowSurrogate(c))) {
+                        seq = notes.add(entries++ == 0 ? NoteLog.OVERWRITE : NoteLog.APPEND, line.toString());
+                        line.setLength(0);
+                    }
+                    if (c != '\n') line.append(c);
+                }
+            }
+        }
+        if (line.length() > 0) seq = notes.add(entries++ == 0 ? NoteLog.OVERWRITE : NoteLog.APPEND, line.toString());
+        if (seq >= 0) notes.sync(seq);
+        Files.move(legacy, Paths.get(FILE_NAME + ".imported"), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        Files.delete(marker);
+        if (entries > 0) System.out.println("Imported " + entries + " entries of existing notes from " + FILE_NAME + ".");
     }
 
     // Create or overwrite a note
@@ -38,12 +194,8 @@ public class NotesApp {
         System.out.println("Enter your note content:");
         String content = sc.nextLine();
 
-        try (FileWriter writer = new FileWriter(FILE_NAME)) {
-            writer.write(content);
-            System.out.println("Note saved successfully (overwritten).");
-        } catch (IOException e) {
-            System.out.println("Error writing file: " + e.getMessage());
-        }
+        writer.overwrite(content).whenComplete(NotesApp::reportWrite);
+        System.out.println("Note overwritten (saving in the background).");
     }
 
     // Append to existing note
@@ -52,29 +204,2705 @@ public class NotesApp {
         System.out.println("Enter text to append:");
         String content = sc.nextLine();
 
-        try (FileWriter writer = new FileWriter(FILE_NAME, true)) {
-            writer.write("\n" + content);
-            System.out.println("Note appended successfully.");
-        } catch (IOException e) {
-            System.out.println("Error writing file: " + e.getMessage());
-        }
+        writer.append(content).whenComplete(NotesApp::reportWrite);
+        System.out.println("Note appended (saving in the background).");
+    }
+
+    // Runs on the writer thread once a background save finishes
+    private static void reportWrite(Void result, Throwable failure) {
+        if (failure != null) System.out.println("Error writing file: " + failure.getMessage());
     }
 
-    // Read the note file
+    // Read the notes a page at a time; only the requested entries are read from the log
     private static void viewNotes() {
         System.out.println("\n--- View Notes ---");
+        writer.flush().join();
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(FILE_NAME))) {
-            String line;
-            System.out.println("\n--- Saved Notes ---");
-            while ((line = reader.readLine()) != null) {
-                System.out.println(line);
+        try {
+            long count = notes.count();
+            if (count == 0) {
+                System.out.println("No notes found. Create one first!");
+                return;
+            }
+            long pages = (count + PAGE_SIZE - 1) / PAGE_SIZE;
+            System.out.println(count + " entries saved, " + PAGE_SIZE + " to a page.");
+            System.out.println("1. Last " + PAGE_SIZE + " entries");
+            System.out.println("2. Page");
+            System.out.println("3. Entry by number");
+            System.out.println("4. Everything");
+            System.out.print("Enter your choice: ");
+
+            long first, n;
+            switch (Integer.parseInt(sc.nextLine())) {
+                case 1 -> {
+                    first = Math.max(0, count - PAGE_SIZE);
+                    n = PAGE_SIZE;
+                }
+                case 2 -> {
+                    System.out.print("Page (1-" + pages + "): ");
+                    first = (Long.parseLong(sc.nextLine()) - 1) * PAGE_SIZE;
+                    n = PAGE_SIZE;
+                }
+                case 3 -> {
+                    System.out.print("Entry (1-" + count + "): ");
+                    first = Long.parseLong(sc.nextLine()) - 1;
+                    n = 1;
+                }
+                case 4 -> {
+                    first = 0;
+                    n = count;
+                }
+                default -> {
+                    System.out.println("Invalid choice.");
+                    return;
+                }
             }
+            if (first < 0 || first >= count) {
+                System.out.println("No such entry.");
+                return;
+            }
+            System.out.println("\n--- Saved Notes ---");
+            System.out.flush();
+            notes.transfer(first, n, STDOUT);
             System.out.println("--------------------\n");
-        } catch (FileNotFoundException e) {
-            System.out.println("No notes found. Create one first!");
         } catch (IOException e) {
             System.out.println("Error reading file: " + e.getMessage());
         }
     }
+
+    // Search the current note's entries, best matches first
+    private static void searchNotes() {
+        System.out.println("\n--- Search Notes ---");
+        System.out.println("Words must all match; use word* for a prefix and \"quotes\" for a phrase.");
+        System.out.print("Search for: ");
+        String query = sc.nextLine();
+        writer.flush().join();
+
+        try {
+            List<NoteSearch.Hit> hits = search.search(query, PAGE_SIZE);
+            if (hits.isEmpty()) {
+                System.out.println("No matching entries.");
+                return;
+            }
+            System.out.println("\n--- Top " + hits.size() + " Matches ---");
+            for (NoteSearch.Hit hit : hits) {
+                System.out.print("#" + (hit.entry + 1) + ": ");
+                System.out.flush();
+                notes.transfer(hit.entry, 1, STDOUT);
+            }
+            System.out.println("--------------------\n");
+        } catch (IOException e) {
+            System.out.println("Error searching notes: " + e.getMessage());
+        }
+    }
+
+    // ===== Note log =====
+
+    /*
+     * Append-only log of note entries in a directory of segment files.
+     *
+     * Each segment is pre-allocated to SEGMENT_SIZE and memory-mapped; records are
+     * [int length][int crc32][byte type][long millis][UTF-8 text] where length
+     * counts everything after the crc. A zero length marks the end of the data in a
+     * segment. An OVERWRITE entry replaces everything before it, an APPEND entry adds
+     * a line, so the current note is the last OVERWRITE and the APPENDs after it.
+     *
+     * One writer stays open for the life of the log, and it holds an exclusive lock
+     * on LOCK_FILE so no other process can open the same directory for writing
+     * (NoteFeed readers need no lock). How appends reach the disk is
+     * the sync policy: EVERY_WRITE forces each record as it is written, under the log
+     * lock, so every write pays for its own force; GROUP lets concurrent writers
+     * share one force; PERIODIC forces in the background every interval and returns
+     * at once (a crash may lose that interval).
+     *
+     * Records are numbered from 0 in log order, and a sparse OffsetIndex next to the
+     * segments maps record numbers to positions. Opening resumes from the newest
+     * index entry that still points at a valid record and scans only the records
+     * after it, ignoring a torn or corrupt tail; reading entry N jumps to the index
+     * entry at or before it and walks at most INDEX_INTERVAL records.
+     *
+     * Sealed segments are compacted by a background thread. A segment whose records
+     * all precede the newest OVERWRITE can never be read again and is replaced by an
+     * empty placeholder that keeps its position and record numbers; any other sealed
+     * segment is rewritten as a PackedSegment of Deflate-compressed blocks. Either way
+     * the new file is written beside the old one and renamed over it, so a crash leaves
+     * one complete version.
+     */
+    static final class NoteLog implements AutoCloseable {
+        enum SyncPolicy { EVERY_WRITE, GROUP, PERIODIC }
+
+        static final String DIR = "notes.log";
+        static final String INDEX_FILE = "notes.idx";
+        static final String LOCK_FILE = "notes.lock";
+        static final int SEGMENT_SIZE = 64 << 20;
+        static final int INDEX_INTERVAL = 64;
+        static final int ZERO_COPY_MIN = 8 << 10; // entries at least this long are sent with transferTo
+        static final long PERIODIC_SYNC_MILLIS = 200;
+        private static final int HEADER = 8;
+        static final int MAX_TEXT = 1 << 20;
+        private static final byte APPEND = 1, OVERWRITE = 2;
+        private static final ByteBuffer NEWLINE = ByteBuffer.wrap(new byte[] { '\n' }).asReadOnlyBuffer();
+
+        // A segment file; base is the log position of its first byte
+        private static class Segment {
+            final long base;
+            final Path path;
+            final FileChannel channel;
+            final MappedByteBuffer map; // null once packed
+            int end; // bytes of valid records
+
+            Segment(long base, Path path, FileChannel channel, MappedByteBuffer map) {
+                this.base = base;
+                this.path = path;
+                this.channel = channel;
+                this.map = map;
+            }
+
+            int getInt(int pos) throws IOException {
+                return map.getInt(pos);
+            }
+
+            byte get(int pos) throws IOException {
+                return map.get(pos);
+            }
+
+            ByteBuffer slice(int pos, int length) throws IOException {
+                return map.slice(pos, length);
+            }
+
+            // True when the records were dropped and only their numbering is left
+            boolean dropped() {
+                return false;
+            }
+        }
+
+        /*
+         * A sealed segment rewritten as independently compressed blocks, so any byte
+         * range can be read by inflating only the blocks it covers:
+         *
+         *   header [int magic][int blockSize][long firstRecord][int records][int length][int blocks][int unused]
+         *   offsets (blocks + 1) x long, file offsets of each block and of the end
+         *   blocks  Deflate data, each inflating to blockSize bytes (the last may be shorter)
+         *
+         * A placeholder for dropped records has no blocks. Reads go through positioned
+         * channel reads, not a mapping, and the last few inflated blocks are cached.
+         */
+        private static final class PackedSegment extends Segment {
+            static final int MAGIC = 0x4E5A5347; // "NZSG"
+            static final int HEADER = 32;
+            static final int BLOCK_SIZE = 16 << 10;
+            private static final int CACHED_BLOCKS = 4;
+
+            final long firstRecord;
+            final int records;
+            private final long[] offsets;
+            private final Inflater inflater = new Inflater();
+            private final int[] cachedIds = new int[CACHED_BLOCKS];
+            private final byte[][] cached = new byte[CACHED_BLOCKS][];
+            private int nextVictim;
+
+            private PackedSegment(long base, Path path, FileChannel channel, long firstRecord, int records, int end,
+                    long[] offsets) {
+                super(base, path, channel, null);
+                this.firstRecord = firstRecord;
+                this.records = records;
+                this.end = end;
+                this.offsets = offsets;
+                Arrays.fill(cachedIds, -1);
+            }
+
+            static PackedSegment open(long base, Path path) throws IOException {
+                FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+                try {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER);
+                    readFully(channel, header, 0);
+                    int blocks = header.getInt(24);
+                    if (header.getInt(0) != MAGIC || header.getInt(4) != BLOCK_SIZE || blocks < 0) {
+                        throw new IOException("Bad packed segment " + path);
+                    }
+                    long[] offsets = new long[blocks + 1];
+                    ByteBuffer table = ByteBuffer.allocate(8 * offsets.length);
+                    readFully(channel, table, HEADER);
+                    for (int i = 0; i < offsets.length; i++) offsets[i] = table.getLong(8 * i);
+                    return new PackedSegment(base, path, channel, header.getLong(8), header.getInt(16),
+                            header.getInt(20), offsets);
+                } catch (IOException e) {
+                    channel.close();
+                    throw e;
+                }
+            }
+
+            // Writes [0, length) of source as a packed segment at path, or a placeholder when source is null
+            static void write(Path path, ByteBuffer source, long firstRecord, int records, int length) throws IOException {
+                int blocks = source == null ? 0 : (length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+                Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+                try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                    long[] offsets = new long[blocks + 1];
+                    long at = HEADER + 8L * offsets.length;
+                    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+                    try {
+                        byte[] raw = new byte[BLOCK_SIZE];
+                        ByteBuffer packed = ByteBuffer.allocate(BLOCK_SIZE + BLOCK_SIZE / 8 + 64);
+                        for (int b = 0; b < blocks; b++) {
+                            int n = Math.min(BLOCK_SIZE, length - b * BLOCK_SIZE);
+                            source.get(b * BLOCK_SIZE, raw, 0, n);
+                            deflater.reset();
+                            deflater.setInput(raw, 0, n);
+                            deflater.finish();
+                            packed.clear();
+                            while (!deflater.finished()) {
+                                if (!packed.hasRemaining()) packed = ByteBuffer.allocate(packed.capacity() * 2).put(packed.flip());
+                                deflater.deflate(packed);
+                            }
+                            offsets[b] = at;
+                            at += writeFully(out, packed.flip(), at);
+                        }
+                    } finally {
+                        deflater.end();
+                    }
+                    offsets[blocks] = at;
+                    ByteBuffer header = ByteBuffer.allocate(HEADER + 8 * offsets.length);
+                    header.putInt(MAGIC).putInt(BLOCK_SIZE).putLong(firstRecord).putInt(records).putInt(length)
+                            .putInt(blocks).putInt(0);
+                    for (long offset : offsets) header.putLong(offset);
+                    writeFully(out, header.flip(), 0);
+                    out.force(true);
+                }
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+            }
+
+            @Override
+            boolean dropped() {
+                return offsets.length == 1;
+            }
+
+            @Override
+            synchronized int getInt(int pos) throws IOException {
+                byte[] block = block(pos / BLOCK_SIZE);
+                int at = pos % BLOCK_SIZE;
+                if (at + 4 <= block.length) return ByteBuffer.wrap(block).getInt(at);
+                return slice(pos, 4).getInt(0);
+            }
+
+            @Override
+            synchronized byte get(int pos) throws IOException {
+                return block(pos / BLOCK_SIZE)[pos % BLOCK_SIZE];
+            }
+
+            // A copy, since the cached blocks are reused
+            @Override
+            synchronized ByteBuffer slice(int pos, int length) throws IOException {
+                byte[] bytes = new byte[length];
+                for (int done = 0; done < length; ) {
+                    byte[] block = block((pos + done) / BLOCK_SIZE);
+                    int at = (pos + done) % BLOCK_SIZE;
+                    int n = Math.min(length - done, block.length - at);
+                    System.arraycopy(block, at, bytes, done, n);
+                    done += n;
+                }
+                return ByteBuffer.wrap(bytes);
+            }
+
+            private byte[] block(int id) throws IOException {
+                if (id >= offsets.length - 1) throw new IOException("Read past the end of packed segment " + path);
+                for (int i = 0; i < CACHED_BLOCKS; i++) {
+                    if (cachedIds[i] == id) return cached[i];
+                }
+                ByteBuffer packed = ByteBuffer.allocate((int) (offsets[id + 1] - offsets[id]));
+                readFully(channel, packed, offsets[id]);
+                byte[] raw = new byte[Math.min(BLOCK_SIZE, end - id * BLOCK_SIZE)];
+                inflater.reset();
+                inflater.setInput(packed.flip());
+                try {
+                    for (int n = 0; n < raw.length; ) {
+                        int got = inflater.inflate(raw, n, raw.length - n);
+                        if (got == 0 && (inflater.finished() || inflater.needsInput())) {
+                            throw new IOException("Corrupt block " + id + " in " + path);
+                        }
+                        n += got;
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException("Corrupt block " + id + " in " + path, e);
+                }
+                int victim = nextVictim;
+                nextVictim = (nextVictim + 1) % CACHED_BLOCKS;
+                cachedIds[victim] = id;
+                cached[victim] = raw;
+                return raw;
+            }
+        }
+
+        private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                int n = channel.read(buffer, position);
+                if (n < 0) throw new EOFException("Unexpected end of " + channel);
+                position += n;
+            }
+        }
+
+        private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+            int written = 0;
+            while (buffer.hasRemaining()) written += channel.write(buffer, position + written);
+            return written;
+        }
+
+        /*
+         * Sparse record number -> log position index, stored as 16-byte
+         * [long record][long position] entries. There is an entry for every
+         * INDEX_INTERVAL-th record, every OVERWRITE (flagged in the top bit of the
+         * position) and the first record of each segment. The index is derived from
+         * the segments, so it is never forced; open() checks its tail and repairs it.
+         */
+        private static final class OffsetIndex {
+            private static final int ENTRY = 16;
+            private static final long OVERWRITE_FLAG = Long.MIN_VALUE;
+            private final FileChannel file;
+            private final ByteBuffer entry = ByteBuffer.allocate(ENTRY);
+            private long[] records = new long[1024];
+            private long[] positions = new long[1024];
+            private int size;
+
+            OffsetIndex(Path path) throws IOException {
+                file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+                int entries = (int) (file.size() / ENTRY);
+                if (entries == 0) return;
+                MappedByteBuffer map = file.map(FileChannel.MapMode.READ_ONLY, 0, (long) entries * ENTRY);
+                for (int i = 0; i < entries; i++) {
+                    long record = map.getLong(i * ENTRY);
+                    if (size > 0 && record <= records[size - 1]) break; // garbage after a torn write
+                    grow();
+                    records[size] = record;
+                    positions[size++] = map.getLong(i * ENTRY + 8);
+                }
+            }
+
+            void add(long record, long position, boolean overwrite) throws IOException {
+                grow();
+                records[size] = record;
+                positions[size] = overwrite ? position | OVERWRITE_FLAG : position;
+                entry.clear();
+                entry.putLong(record).putLong(positions[size]).flip();
+                long at = (long) size++ * ENTRY;
+                while (entry.hasRemaining()) at += file.write(entry, at);
+            }
+
+            private void grow() {
+                if (size < records.length) return;
+                records = Arrays.copyOf(records, size * 2);
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+
+            int size() {
+                return size;
+            }
+
+            long record(int i) {
+                return records[i];
+            }
+
+            long position(int i) {
+                return positions[i] & ~OVERWRITE_FLAG;
+            }
+
+            // Index of the last entry at or before record, or -1
+            int floor(long record) {
+                int lo = 0, hi = size - 1;
+                while (lo <= hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (records[mid] <= record) lo = mid + 1;
+                    else hi = mid - 1;
+                }
+                return hi;
+            }
+
+            // Record number of the entry at exactly this log position, or -1
+            long recordAt(long position) {
+                int lo = 0, hi = size - 1;
+                while (lo <= hi) {
+                    int mid = (lo + hi) >>> 1;
+                    long p = position(mid);
+                    if (p < position) lo = mid + 1;
+                    else if (p > position) hi = mid - 1;
+                    else return records[mid];
+                }
+                return -1;
+            }
+
+            // Record number of the newest OVERWRITE entry, or -1
+            long lastOverwrite() {
+                for (int i = size - 1; i >= 0; i--) {
+                    if (positions[i] < 0) return records[i];
+                }
+                return -1;
+            }
+
+            void truncate(int entries) throws IOException {
+                size = entries;
+                file.truncate((long) entries * ENTRY);
+            }
+
+            void close() throws IOException {
+                file.close();
+            }
+        }
+
+        private final Path dir;
+        private final SyncPolicy policy;
+        private FileChannel lockChannel;  // holds the writer lock until close
+        private final List<Segment> segments = new ArrayList<>();
+        private Segment active;
+        private OffsetIndex index;
+        private long recordCount;         // records in the log, which is also the number of the next one
+        private long firstEntry;          // record number of the newest OVERWRITE (0 when there is none)
+        private NoteSearch search;        // indexes each record as it is appended, once attached
+        private final CRC32 crc = new CRC32();
+        private long appendedSeq;         // last record appended
+        private volatile long durableSeq; // last record known to be on disk
+        private int durableOffset;        // bytes of the active segment already forced
+        private final Object syncLock = new Object();
+        private Thread syncer;
+        private Thread compactor;
+        private boolean compactRequested;                      // guarded by this
+        private final Object compactLock = new Object();      // one compaction pass at a time
+        private long epoch;                                               // bumped each time a packed segment is retired
+        private final TreeMap<Long, Integer> readers = new TreeMap<>();  // walks in progress, by the epoch they began in
+        private final TreeMap<Long, FileChannel> retired = new TreeMap<>(); // replaced packed segments, by retiring epoch
+        private volatile boolean closed;
+
+        private NoteLog(Path dir, SyncPolicy policy) {
+            this.dir = dir;
+            this.policy = policy;
+        }
+
+        static NoteLog open(Path dir, SyncPolicy policy) throws IOException {
+            Files.createDirectories(dir);
+            NoteLog log = new NoteLog(dir, policy);
+            log.lockChannel = lockWriter(dir);
+            try {
+                log.load();
+            } catch (IOException | RuntimeException e) {
+                for (Segment seg : log.segments) seg.channel.close();
+                log.lockChannel.close();
+                throw e;
+            }
+            if (policy == SyncPolicy.PERIODIC) log.startSyncer();
+            log.startCompactor();
+            return log;
+        }
+
+        // Each writer appends at its own idea of the end of the log, so only one may have it open
+        private static FileChannel lockWriter(Path dir) throws IOException {
+            FileChannel channel = FileChannel.open(dir.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE);
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null; // held by another NoteLog in this process
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            if (lock == null) {
+                channel.close();
+                throw new IOException("Notes in " + dir + " are already open for writing by another process");
+            }
+            return channel;
+        }
+
+        // Opens the segment files and recovers the end of the log
+        private void load() throws IOException {
+            List<Path> files;
+            try (Stream<Path> list = Files.list(dir)) {
+                files = list.sorted().toList();
+            }
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    Files.delete(file); // a packed segment that was never renamed into place
+                } else if (name.endsWith(".segz")) {
+                    long base = Long.parseLong(name.replace(".segz", ""));
+                    segments.add(PackedSegment.open(base, file));
+                    Files.deleteIfExists(segmentPath(dir, base)); // packed, then interrupted before the delete
+                }
+            }
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (!name.endsWith(".seg") || !Files.exists(file)) continue;
+                segments.add(map(Long.parseLong(name.replace(".seg", "")), file));
+            }
+            segments.sort(Comparator.comparingLong(seg -> seg.base));
+            if (segments.isEmpty()) segments.add(map(0, segmentPath(dir, 0)));
+            // A segment is sealed when the next one starts, and the next one starts where its data ends
+            for (int i = 0; i + 1 < segments.size(); i++) {
+                segments.get(i).end = (int) (segments.get(i + 1).base - segments.get(i).base);
+            }
+            active = segments.get(segments.size() - 1);
+            index = new OffsetIndex(dir.resolve(INDEX_FILE));
+            recover();
+            clearTail(active);
+            durableOffset = active.end;
+        }
+
+        private static Path segmentPath(Path dir, long base) {
+            return dir.resolve(String.format("%020d.seg", base));
+        }
+
+        private static Path packedPath(Path dir, long base) {
+            return dir.resolve(String.format("%020d.segz", base));
+        }
+
+        // Maps a segment at its full size, which pre-allocates a new file
+        private Segment map(long base, Path path) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            return new Segment(base, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE));
+        }
+
+        /*
+         * Drops index entries that point past the valid records (the index may have
+         * reached the disk ahead of a record lost in a crash), then scans forward from
+         * the last remaining entry to find the end of the log, indexing as it goes.
+         * An index without segments, or from a log that is no longer there, is rebuilt.
+         */
+        private void recover() throws IOException {
+            int last = index.size() - 1;
+            if (last >= 0 && (index.record(0) != 0 || index.position(0) != segments.get(0).base)) last = -1;
+            while (last >= 0 && !validAt(index.position(last))) last--;
+            index.truncate(last + 1);
+            long record = last >= 0 ? index.record(last) : 0;
+            long position = last >= 0 ? index.position(last) : segments.get(0).base;
+            firstEntry = Math.max(0, index.lastOverwrite());
+
+            int s = segmentOf(segments, position);
+            Segment seg = segments.get(s);
+            int pos = (int) (position - seg.base);
+            long lastIndexed = last >= 0 ? index.record(last) : -1;
+            while (true) {
+                boolean sealed = seg != active;
+                if (seg.dropped()) {
+                    PackedSegment dropped = (PackedSegment) seg;
+                    if (dropped.firstRecord > lastIndexed) index.add(dropped.firstRecord, seg.base, false);
+                    record = dropped.firstRecord + dropped.records;
+                    pos = seg.end;
+                }
+                if (sealed && pos == seg.end) {
+                    seg = segments.get(++s);
+                    pos = 0;
+                    continue;
+                }
+                int length = recordLength(seg, pos, sealed ? seg.end : SEGMENT_SIZE);
+                if (length < 0) {
+                    if (sealed) throw new IOException("Corrupt note log at position " + (seg.base + pos));
+                    break;
+                }
+                byte type = seg.get(pos + HEADER);
+                if (type == OVERWRITE) firstEntry = record;
+                if (record > lastIndexed && indexed(record, type, pos)) {
+                    index.add(record, seg.base + pos, type == OVERWRITE);
+                }
+                pos += HEADER + length;
+                record++;
+            }
+            active.end = pos;
+            recordCount = record;
+        }
+
+        private static boolean indexed(long record, byte type, int pos) {
+            return record % INDEX_INTERVAL == 0 || type == OVERWRITE || pos == 0;
+        }
+
+        private boolean validAt(long position) throws IOException {
+            int s = segmentOf(segments, position);
+            Segment seg = segments.get(s);
+            long pos = position - seg.base;
+            int limit = seg != active ? seg.end : SEGMENT_SIZE;
+            return !seg.dropped() && pos >= 0 && pos < limit && recordLength(seg, (int) pos, limit) > 0;
+        }
+
+        // Length of the record at pos if it is complete and its checksum matches, otherwise -1
+        private int recordLength(Segment s, int pos, int limit) throws IOException {
+            if (pos + HEADER > limit) return -1;
+            int length = s.getInt(pos);
+            if (length < 9 || length > limit - pos - HEADER) return -1;
+            crc.reset();
+            crc.update(s.slice(pos + HEADER, length));
+            return (int) crc.getValue() == s.getInt(pos + 4) ? length : -1;
+        }
+
+        private static int segmentOf(List<Segment> view, long position) {
+            int lo = 0, hi = view.size() - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (view.get(mid).base <= position) lo = mid;
+                else hi = mid - 1;
+            }
+            return lo;
+        }
+
+        // Zeroes whatever a torn write left after the valid records, so it can never be read back
+        private void clearTail(Segment s) {
+            byte[] zeros = new byte[64 << 10];
+            for (int pos = s.end; pos < SEGMENT_SIZE; pos += zeros.length) {
+                int n = Math.min(zeros.length, SEGMENT_SIZE - pos);
+                boolean dirty = false;
+                for (int i = pos; i < pos + n && !dirty; i++) dirty = s.map.get(i) != 0;
+                if (!dirty) break;
+                s.map.put(pos, zeros, 0, n);
+            }
+        }
+
+        synchronized boolean isEmpty() {
+            return recordCount == 0;
+        }
+
+        // Number of entries in the current note
+        synchronized long count() {
+            return recordCount - firstEntry;
+        }
+
+        synchronized long recordCount() {
+            return recordCount;
+        }
+
+        // Record number of the current note's first entry
+        synchronized long firstRecord() {
+            return firstEntry;
+        }
+
+        // Replaces the whole note
+        void overwrite(String text) throws IOException {
+            write(OVERWRITE, text);
+        }
+
+        // Adds a line to the note
+        void append(String text) throws IOException {
+            write(APPEND, text);
+        }
+
+        private void write(byte type, String text) throws IOException {
+            long seq = add(type, text);
+            if (policy == SyncPolicy.GROUP) sync(seq);
+        }
+
+        // Appends one record and returns its sequence number for sync
+        synchronized long add(byte type, String text) throws IOException {
+            if (closed) throw new IOException("Note log is closed");
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > MAX_TEXT) throw new IllegalArgumentException("Note too long");
+            int length = 1 + 8 + bytes.length;
+            if (active.end + HEADER + length > SEGMENT_SIZE) roll();
+            MappedByteBuffer map = active.map;
+            int pos = active.end;
+            map.put(pos + HEADER, type).putLong(pos + HEADER + 1, System.currentTimeMillis())
+                    .put(pos + HEADER + 9, bytes);
+            crc.reset();
+            crc.update(map.slice(pos + HEADER, length));
+            map.putInt(pos + 4, (int) crc.getValue());
+            map.putInt(pos, length); // written last: a record counts once its length is there
+            long record = recordCount++;
+            if (type == OVERWRITE) {
+                firstEntry = record;
+                if (segments.size() > 1) requestCompaction();
+            }
+            active.end = pos + HEADER + length;
+            if (indexed(record, type, pos)) index.add(record, active.base + pos, type == OVERWRITE);
+            if (search != null) search.add(record, text);
+            long seq = ++appendedSeq;
+            if (policy == SyncPolicy.EVERY_WRITE) {
+                map.force(pos, HEADER + length);
+                if (durableOffset == pos) durableOffset = active.end;
+                if (durableSeq < seq) durableSeq = seq;
+            }
+            return seq;
+        }
+
+        // Seals the active segment (forcing it) and starts the next one
+        private void roll() throws IOException {
+            active.map.force();
+            Segment next = map(active.base + active.end, segmentPath(dir, active.base + active.end));
+            segments.add(next);
+            active = next;
+            durableOffset = 0;
+            requestCompaction();
+        }
+
+        /*
+         * Makes every record up to seq durable. Threads arriving while another thread
+         * is forcing wait for it, then usually find their record already covered.
+         */
+        void sync(long seq) throws IOException {
+            if (durableSeq >= seq) return;
+            synchronized (syncLock) {
+                if (durableSeq >= seq) return;
+                Segment s;
+                int from, to;
+                long upTo;
+                synchronized (this) {
+                    s = active;
+                    from = durableOffset;
+                    to = s.end;
+                    upTo = appendedSeq;
+                }
+                if (to > from) s.map.force(from, to - from);
+                synchronized (this) {
+                    if (active == s) durableOffset = Math.max(durableOffset, to);
+                }
+                durableSeq = upTo;
+            }
+        }
+
+        // Wakes the compactor; called holding this log's lock
+        private void requestCompaction() {
+            compactRequested = true;
+            notifyAll();
+        }
+
+        private void startCompactor() {
+            synchronized (this) {
+                compactRequested = segments.size() > 1;
+            }
+            compactor = new Thread(() -> {
+                while (true) {
+                    synchronized (this) {
+                        while (!compactRequested && !closed) {
+                            try {
+                                wait();
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                        }
+                        if (closed) return;
+                        compactRequested = false;
+                    }
+                    try {
+                        compact();
+                    } catch (IOException e) {
+                        System.err.println("Note log compaction failed: " + e.getMessage());
+                    }
+                }
+            }, "note-log-compact");
+            compactor.setDaemon(true);
+            compactor.start();
+        }
+
+        /*
+         * Rewrites sealed segments until none is left to do: segments whose records all
+         * precede the current note become placeholders, other mapped ones are packed.
+         * Readers keep using the segment they started with; the swap happens under the
+         * log lock. A replaced mapped segment's channel is closed at once, so its file's
+         * space goes back when the mapping is collected; a replaced packed segment's
+         * channel is closed once no walk that began before the swap is running.
+         * Returns the number of segments rewritten.
+         */
+        int compact() throws IOException {
+            synchronized (compactLock) {
+                int rewritten = 0;
+                while (true) {
+                    Segment seg = null;
+                    long first = -1, next = -1;
+                    boolean dead = false;
+                    synchronized (this) {
+                        if (closed) return rewritten;
+                        for (int i = 0; i + 1 < segments.size() && seg == null; i++) {
+                            Segment candidate = segments.get(i);
+                            first = firstRecordOf(candidate);
+                            next = firstRecordOf(segments.get(i + 1));
+                            if (first < 0 || next < 0) continue;
+                            dead = next <= firstEntry;
+                            if (dead ? !candidate.dropped() : candidate.map != null) seg = candidate;
+                        }
+                    }
+                    if (seg == null) return rewritten;
+                    Path packedPath = packedPath(dir, seg.base);
+                    PackedSegment.write(packedPath, dead ? null : seg.map, first, (int) (next - first), seg.end);
+                    PackedSegment packed = PackedSegment.open(seg.base, packedPath);
+                    synchronized (this) {
+                        segments.set(segments.indexOf(seg), packed);
+                        if (seg.map == null) {
+                            retired.put(++epoch, seg.channel);
+                            closeUnreachable();
+                        }
+                    }
+                    if (seg.map != null) {
+                        // The mapping stays readable for walks still holding it; the channel is not needed
+                        seg.channel.close();
+                        Files.delete(seg.path);
+                    }
+                    rewritten++;
+                }
+            }
+        }
+
+        /*
+         * Closes retired packed segments that no walk in progress can reach: a walk only
+         * sees segments that were still in the list when it began. Called holding the lock.
+         */
+        private void closeUnreachable() {
+            long oldest = readers.isEmpty() ? epoch : readers.firstKey();
+            while (!retired.isEmpty() && retired.firstKey() <= oldest) {
+                try {
+                    retired.pollFirstEntry().getValue().close();
+                } catch (IOException e) {
+                    System.err.println("Could not close a compacted note segment: " + e.getMessage());
+                }
+            }
+        }
+
+        private long firstRecordOf(Segment seg) {
+            return seg instanceof PackedSegment packed ? packed.firstRecord : index.recordAt(seg.base);
+        }
+
+        private void startSyncer() {
+            syncer = new Thread(() -> {
+                while (!closed) {
+                    try {
+                        Thread.sleep(PERIODIC_SYNC_MILLIS);
+                        long seq;
+                        synchronized (this) {
+                            seq = appendedSeq;
+                        }
+                        sync(seq);
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (IOException e) {
+                        System.err.println("Background note sync failed: " + e.getMessage());
+                    }
+                }
+            }, "note-log-sync");
+            syncer.setDaemon(true);
+            syncer.start();
+        }
+
+        /*
+         * Writes entries [first, first + n) of the current note (0-based) to out, one
+         * per line, and returns how many were written. Short entries go out as slices
+         * of the mapped segments in gathering writes; long ones are handed to the
+         * kernel with transferTo. Entries appended after the call starts are not included.
+         */
+        long transfer(long first, long n, WritableByteChannel out) throws IOException {
+            long from, to;
+            synchronized (this) {
+                from = firstEntry + Math.max(0, first);
+                to = Math.min(recordCount, from + n);
+            }
+            if (from >= to) return 0;
+            EntryWriter writer = new EntryWriter(out);
+            walk(from, to, writer::write);
+            writer.flush();
+            return to - from;
+        }
+
+        // Gathers entry texts and newlines into batches of buffers for one channel
+        private static final class EntryWriter {
+            private final WritableByteChannel out;
+            private final ByteBuffer[] batch = new ByteBuffer[64];
+            private final ByteBuffer[] newlines = new ByteBuffer[batch.length / 2];
+            private int batched;
+
+            EntryWriter(WritableByteChannel out) {
+                this.out = out;
+            }
+
+            void write(long record, Segment seg, int pos, int length) throws IOException {
+                int textLength = length - 9;
+                if (textLength >= ZERO_COPY_MIN && seg.map != null) {
+                    flush();
+                    long at = pos + HEADER + 9;
+                    for (long left = textLength; left > 0; ) {
+                        long sent;
+                        try {
+                            sent = seg.channel.transferTo(at, left, out);
+                        } catch (ClosedChannelException e) {
+                            // Packed while we were reading; the mapping is still valid
+                            ByteBuffer rest = seg.slice((int) at, (int) left);
+                            while (rest.hasRemaining()) out.write(rest);
+                            break;
+                        }
+                        at += sent;
+                        left -= sent;
+                    }
+                } else {
+                    batch[batched++] = seg.slice(pos + HEADER + 9, textLength);
+                }
+                if (newlines[batched / 2] == null) newlines[batched / 2] = NEWLINE.duplicate();
+                batch[batched] = newlines[batched / 2].rewind();
+                batched++;
+                if (batched >= batch.length - 1) flush();
+            }
+
+            void flush() throws IOException {
+                if (out instanceof GatheringByteChannel gathering) {
+                    for (int i = 0; i < batched; ) {
+                        gathering.write(batch, i, batched - i);
+                        while (i < batched && !batch[i].hasRemaining()) i++;
+                    }
+                } else {
+                    for (int i = 0; i < batched; i++) {
+                        while (batch[i].hasRemaining()) out.write(batch[i]);
+                    }
+                }
+                Arrays.fill(batch, 0, batched, null);
+                batched = 0;
+            }
+        }
+
+        interface TextVisitor {
+            void visit(long record, ByteBuffer text) throws IOException;
+        }
+
+        // Calls visitor with the UTF-8 text of records [from, to) of the log, in order
+        void forEachText(long from, long to, TextVisitor visitor) throws IOException {
+            walk(from, to, (record, seg, pos, length) -> visitor.visit(record, seg.slice(pos + HEADER + 9, length - 9)));
+        }
+
+        private interface RecordVisitor {
+            void visit(long record, Segment seg, int pos, int length) throws IOException;
+        }
+
+        // Visits records [from, to) as they are when the call starts, starting at the index entry at or before from
+        private void walk(long from, long to, RecordVisitor visitor) throws IOException {
+            List<Segment> view;
+            int[] ends;
+            long record, position, started;
+            synchronized (this) {
+                to = Math.min(recordCount, to);
+                if (from >= to) return;
+                view = new ArrayList<>(segments);
+                ends = new int[view.size()];
+                for (int i = 0; i < ends.length; i++) ends[i] = view.get(i).end;
+                int e = index.floor(from);
+                record = index.record(e);
+                position = index.position(e);
+                started = epoch;
+                readers.merge(started, 1, Integer::sum);
+            }
+            try {
+                walk(view, ends, from, to, record, position, visitor);
+            } finally {
+                synchronized (this) {
+                    readers.computeIfPresent(started, (k, n) -> n > 1 ? n - 1 : null);
+                    closeUnreachable();
+                }
+            }
+        }
+
+        private static void walk(List<Segment> view, int[] ends, long from, long to, long record, long position,
+                RecordVisitor visitor) throws IOException {
+            int s = segmentOf(view, position);
+            int pos = (int) (position - view.get(s).base);
+            while (record < to) {
+                Segment seg = view.get(s);
+                if (seg.dropped()) {
+                    PackedSegment dropped = (PackedSegment) seg;
+                    record = dropped.firstRecord + dropped.records; // nothing left to visit
+                    pos = ends[s];
+                }
+                if (pos == ends[s]) {
+                    s++;
+                    pos = 0;
+                    continue;
+                }
+                int length = seg.getInt(pos);
+                if (length < 9 || pos + HEADER + length > ends[s]) {
+                    throw new IOException("Corrupt note log at position " + (seg.base + pos));
+                }
+                if (record >= from) visitor.visit(record, seg, pos, length);
+                pos += HEADER + length;
+                record++;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (this) {
+                if (closed) return;
+                closed = true;
+            }
+            if (syncer != null) syncer.interrupt();
+            synchronized (this) {
+                notifyAll(); // the compactor finishes the segment it is on, then stops
+            }
+            try {
+                compactor.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (syncLock) {
+                synchronized (this) {
+                    active.map.force();
+                    for (Segment s : segments) s.channel.close();
+                    for (FileChannel c : retired.values()) c.close();
+                    index.close();
+                    lockChannel.close();
+                }
+            }
+        }
+    }
+
+    // ===== Async note writer =====
+
+    /*
+     * Asynchronous writes to a NoteLog. Callers put entries into a bounded ring and
+     * get a future that completes once the entry is durable; a single writer thread
+     * takes everything waiting in the ring, appends it to the log in one go (the
+     * records land next to each other in the mapped segment) and forces the batch
+     * with one sync. Slots are freed before the force, so callers fill the next batch
+     * while the current one is on its way to disk. When the ring is full, callers
+     * wait for room.
+     */
+    static final class NoteWriter implements AutoCloseable {
+        static final int CAPACITY = 1 << 12;
+
+        private final NoteLog log;
+        private final byte[] types = new byte[CAPACITY];
+        private final String[] texts = new String[CAPACITY];
+        private final List<CompletableFuture<Void>> futures = new ArrayList<>(Collections.nCopies(CAPACITY, null));
+        private long head;  // next entry for the writer
+        private long tail;  // next free slot
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Condition notFull = lock.newCondition();
+        private boolean closed;
+        private CompletableFuture<Void> last = CompletableFuture.completedFuture(null);
+        private final Thread thread;
+
+        NoteWriter(NoteLog log) {
+            this.log = log;
+            thread = new Thread(this::run, "note-writer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        // Replaces the whole note
+        CompletableFuture<Void> overwrite(String text) {
+            return submit(NoteLog.OVERWRITE, text);
+        }
+
+        // Adds a line to the note
+        CompletableFuture<Void> append(String text) {
+            return submit(NoteLog.APPEND, text);
+        }
+
+        // Completes once everything submitted so far is durable (or has failed)
+        CompletableFuture<Void> flush() {
+            lock.lock();
+            try {
+                return last.handle((v, e) -> null);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private CompletableFuture<Void> submit(byte type, String text) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            lock.lock();
+            try {
+                while (tail - head == CAPACITY && !closed) notFull.awaitUninterruptibly();
+                if (closed) {
+                    future.completeExceptionally(new IOException("Note writer is closed"));
+                    return future;
+                }
+                int slot = (int) (tail & (CAPACITY - 1));
+                types[slot] = type;
+                texts[slot] = text;
+                futures.set(slot, future);
+                if (tail++ == head) notEmpty.signal();
+                last = future;
+            } finally {
+                lock.unlock();
+            }
+            return future;
+        }
+
+        private void run() {
+            byte[] batchTypes = new byte[CAPACITY];
+            String[] batchTexts = new String[CAPACITY];
+            List<CompletableFuture<Void>> batchFutures = new ArrayList<>(CAPACITY);
+            Throwable[] failures = new Throwable[CAPACITY];
+            while (true) {
+                int n;
+                lock.lock();
+                try {
+                    while (head == tail && !closed) notEmpty.awaitUninterruptibly();
+                    if (head == tail) return; // closed and drained
+                    n = (int) (tail - head);
+                    for (int i = 0; i < n; i++, head++) {
+                        int slot = (int) (head & (CAPACITY - 1));
+                        batchTypes[i] = types[slot];
+                        batchTexts[i] = texts[slot];
+                        batchFutures.add(futures.get(slot));
+                        texts[slot] = null;
+                        futures.set(slot, null);
+                    }
+                    notFull.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                long seq = 0;
+                synchronized (log) {
+                    for (int i = 0; i < n; i++) {
+                        try {
+                            seq = log.add(batchTypes[i], batchTexts[i]);
+                        } catch (IOException | RuntimeException e) {
+                            failures[i] = e;
+                        }
+                    }
+                }
+                try {
+                    log.sync(seq);
+                } catch (IOException e) {
+                    for (int i = 0; i < n; i++) if (failures[i] == null) failures[i] = e;
+                }
+                for (int i = 0; i < n; i++) {
+                    if (failures[i] == null) batchFutures.get(i).complete(null);
+                    else batchFutures.get(i).completeExceptionally(failures[i]);
+                    batchTexts[i] = null;
+                    failures[i] = null;
+                }
+                batchFutures.clear();
+            }
+        }
+
+        // Stops taking entries and waits until those already submitted are written
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                closed = true;
+                notEmpty.signalAll();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // ===== Note search =====
+
+    /*
+     * Inverted index over the records of a NoteLog, kept in notes.log/search.
+     *
+     * Text is split into runs of letters and digits, lower-cased. For every term a
+     * postings list holds, per record containing it: varint(record delta), varint(tf)
+     * and tf varint position deltas. Every SKIP_INTERVAL records form a block, and a
+     * skip entry per block, [long last record][int end offset][int highest tf], lets a
+     * reader jump to the block that may hold a record and bound the score there.
+     * Records are indexed in log order into a memory segment; once it holds
+     * SEGMENT_DOCS records (or its file would reach SEGMENT_BYTES, which keeps every
+     * file far below the 2GB a mapping can address) it is written out by a background
+     * thread as an immutable file covering [from, to), which is then searched through
+     * a read-only mapping:
+     *
+     *   header  [int magic][int terms][long from][long to][long termsAt][long postingsAt]
+     *   entries terms x [int termOffset][int termLength][long postingsOffset][int postingsLength][int docFreq]
+     *   terms   UTF-8 bytes, entries sorted by them (unsigned)
+     *   postings terms x [skip entries][postings list]
+     *
+     * Opening keeps the files that cover the log contiguously from record 0, then
+     * indexes the remaining full chunks of the log in parallel and the last partial
+     * chunk into the memory segment. The memory segment is never written on close;
+     * it is rebuilt from the log next time.
+     *
+     * Queries are a list of clauses that must all match: a word, a word* prefix or a
+     * "quoted phrase". Hits are ranked by sum over clauses of idf * (1 + ln tf), newer
+     * entries first on ties, and only the current note's entries are returned.
+     *
+     * Segments are searched newest first, and those wholly before the current note
+     * are not read. In each, the clause expected to match fewest records is decoded
+     * and the others are probed for its records through their skip entries, so only
+     * the blocks that may hold them are decoded. A segment, or a record, whose best
+     * possible score cannot enter the top k is passed over. The rarest clause is still
+     * decoded in full, though: a query made only of words common to millions of the
+     * current note's entries takes time in proportion to those entries, far from the
+     * few milliseconds a selective query takes at that size.
+     */
+    static final class NoteSearch implements AutoCloseable {
+        static final String DIR = "search";
+        static final int SEGMENT_DOCS = 1 << 18;
+        static final long SEGMENT_BYTES = 256L << 20;
+        static final int MAX_TERM = 64;            // longer terms are cut to this many chars
+        static final int MAX_EXPANSIONS = 256;     // terms a prefix clause may match per segment
+        static final int SKIP_INTERVAL = 128;      // records per postings block
+        private static final int MAGIC = 0x4E465432; // "NFT2"
+        private static final int HEADER = 40, ENTRY = 24, SKIP_ENTRY = 16;
+
+        // One postings list and its skip entries; the first record delta is relative to base
+        private static final class Postings {
+            final long base;
+            final int docFreq;
+            final ByteBuffer skips;
+            final ByteBuffer bytes;
+
+            Postings(long base, int docFreq, ByteBuffer skips, ByteBuffer bytes) {
+                this.base = base;
+                this.docFreq = docFreq;
+                this.skips = skips;
+                this.bytes = bytes;
+            }
+        }
+
+        static int blocks(int docFreq) {
+            return (docFreq + SKIP_INTERVAL - 1) / SKIP_INTERVAL;
+        }
+
+        private interface Segment {
+            long from();
+
+            // Adds the postings of term, or of up to MAX_EXPANSIONS terms starting with it, to out
+            void lookup(String term, byte[] utf8, boolean prefix, List<Postings> out);
+        }
+
+        // Postings being built for one term
+        private static final class PostingsBuilder {
+            byte[] bytes = new byte[16];
+            int length;
+            int docFreq;
+            long lastDoc;
+            // Per block: last record, offset after it, highest tf
+            long[] blockLast = new long[1];
+            int[] blockEnd = new int[1];
+            int[] blockMaxTf = new int[1];
+
+            PostingsBuilder(long from) {
+                lastDoc = from;
+            }
+
+            // Bytes the list takes in a segment file, skip entries included
+            long size() {
+                return (long) blocks(docFreq) * SKIP_ENTRY + length;
+            }
+
+            byte[] skips() {
+                ByteBuffer b = ByteBuffer.allocate(blocks(docFreq) * SKIP_ENTRY);
+                for (int i = 0; i < blocks(docFreq); i++) b.putLong(blockLast[i]).putInt(blockEnd[i]).putInt(blockMaxTf[i]);
+                return b.array();
+            }
+
+            void add(long doc, int[] positions, int count) {
+                if (length + 10 + 5 * (count + 1) > bytes.length) {
+                    bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + 10 + 5 * (count + 1)));
+                }
+                putVarLong(doc - lastDoc);
+                putVarLong(count);
+                for (int i = 0, prev = 0; i < count; prev = positions[i++]) putVarLong(positions[i] - prev);
+                lastDoc = doc;
+                int block = docFreq++ / SKIP_INTERVAL;
+                if (block == blockLast.length) {
+                    blockLast = Arrays.copyOf(blockLast, block * 2);
+                    blockEnd = Arrays.copyOf(blockEnd, block * 2);
+                    blockMaxTf = Arrays.copyOf(blockMaxTf, block * 2);
+                }
+                blockLast[block] = doc;
+                blockEnd[block] = length;
+                blockMaxTf[block] = Math.max(blockMaxTf[block], count);
+            }
+
+            private void putVarLong(long v) {
+                while ((v & ~0x7FL) != 0) {
+                    bytes[length++] = (byte) (v | 0x80);
+                    v >>>= 7;
+                }
+                bytes[length++] = (byte) v;
+            }
+        }
+
+        // Positions of one term within the record being indexed
+        private static final class Positions {
+            int[] values = new int[4];
+            int count;
+
+            void add(int position) {
+                if (count == values.length) values = Arrays.copyOf(values, count * 2);
+                values[count++] = position;
+            }
+        }
+
+        private static final class MemorySegment implements Segment {
+            final long from;
+            private final TreeMap<String, PostingsBuilder> terms = new TreeMap<>();
+            private int docs;
+            private long bytes;
+
+            MemorySegment(long from) {
+                this.from = from;
+            }
+
+            @Override
+            public long from() {
+                return from;
+            }
+
+            synchronized void add(long record, String text) {
+                Map<String, Positions> doc = new HashMap<>();
+                tokenize(text, (term, position) -> doc.computeIfAbsent(term, t -> new Positions()).add(position));
+                for (Map.Entry<String, Positions> e : doc.entrySet()) {
+                    PostingsBuilder p = terms.get(e.getKey());
+                    if (p == null) {
+                        terms.put(e.getKey(), p = new PostingsBuilder(from));
+                        bytes += ENTRY + e.getKey().getBytes(StandardCharsets.UTF_8).length;
+                    }
+                    long before = p.size();
+                    p.add(record, e.getValue().values, e.getValue().count);
+                    bytes += p.size() - before;
+                }
+                docs++;
+            }
+
+            synchronized boolean full() {
+                return docs >= SEGMENT_DOCS || bytes >= SEGMENT_BYTES;
+            }
+
+            @Override
+            public synchronized void lookup(String term, byte[] utf8, boolean prefix, List<Postings> out) {
+                if (!prefix) {
+                    PostingsBuilder p = terms.get(term);
+                    if (p != null) out.add(copy(p));
+                    return;
+                }
+                int n = 0;
+                for (Map.Entry<String, PostingsBuilder> e : terms.tailMap(term).entrySet()) {
+                    if (!e.getKey().startsWith(term) || n++ == MAX_EXPANSIONS) break;
+                    out.add(copy(e.getValue()));
+                }
+            }
+
+            // Copied, because the builder keeps growing after the lock is released
+            private Postings copy(PostingsBuilder p) {
+                return new Postings(from, p.docFreq, ByteBuffer.wrap(p.skips()), ByteBuffer.wrap(Arrays.copyOf(p.bytes, p.length)));
+            }
+
+            // Writes the segment as a file covering [from, to), through a temp file and an atomic rename
+            synchronized Path write(Path dir, long to) throws IOException {
+                List<byte[]> keys = new ArrayList<>(terms.size());
+                List<PostingsBuilder> values = new ArrayList<>(terms.size());
+                Integer[] order = new Integer[terms.size()];
+                for (Map.Entry<String, PostingsBuilder> e : terms.entrySet()) {
+                    order[keys.size()] = keys.size();
+                    keys.add(e.getKey().getBytes(StandardCharsets.UTF_8));
+                    values.add(e.getValue());
+                }
+                Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(keys.get(a), keys.get(b)));
+                long termBytes = 0;
+                for (byte[] k : keys) termBytes += k.length;
+                long termsAt = HEADER + (long) ENTRY * order.length;
+                long postingsAt = termsAt + termBytes;
+
+                Path file = dir.resolve(String.format("%020d-%020d.fts", from, to));
+                Path temp = dir.resolve(file.getFileName() + ".tmp");
+                try (FileOutputStream fos = new FileOutputStream(temp.toFile());
+                     DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(order.length);
+                    out.writeLong(from);
+                    out.writeLong(to);
+                    out.writeLong(termsAt);
+                    out.writeLong(postingsAt);
+                    int termOffset = 0;
+                    long postingsOffset = 0;
+                    for (int i : order) {
+                        PostingsBuilder p = values.get(i);
+                        out.writeInt(termOffset);
+                        out.writeInt(keys.get(i).length);
+                        out.writeLong(postingsOffset);
+                        out.writeInt((int) p.size());
+                        out.writeInt(p.docFreq);
+                        termOffset += keys.get(i).length;
+                        postingsOffset += p.size();
+                    }
+                    for (int i : order) out.write(keys.get(i));
+                    for (int i : order) {
+                        out.write(values.get(i).skips());
+                        out.write(values.get(i).bytes, 0, values.get(i).length);
+                    }
+                    out.flush();
+                    fos.getFD().sync();
+                }
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+                return file;
+            }
+        }
+
+        private static final class DiskSegment implements Segment {
+            final Path path;
+            final long from, to;
+            private final FileChannel channel;
+            private final MappedByteBuffer map;
+            private final int terms;
+            private final long termsAt, postingsAt;
+
+            DiskSegment(Path path) throws IOException {
+                this.path = path;
+                channel = FileChannel.open(path, StandardOpenOption.READ);
+                try {
+                    long size = channel.size();
+                    if (size < HEADER || size > Integer.MAX_VALUE) throw new IOException("Bad search segment " + path);
+                    map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    terms = map.getInt(4);
+                    from = map.getLong(8);
+                    to = map.getLong(16);
+                    termsAt = map.getLong(24);
+                    postingsAt = map.getLong(32);
+                    if (map.getInt(0) != MAGIC || termsAt != HEADER + (long) ENTRY * terms || postingsAt > size) {
+                        throw new IOException("Bad search segment " + path);
+                    }
+                } catch (IOException e) {
+                    channel.close();
+                    throw e;
+                }
+            }
+
+            @Override
+            public long from() {
+                return from;
+            }
+
+            @Override
+            public void lookup(String term, byte[] utf8, boolean prefix, List<Postings> out) {
+                // First entry whose term is not below the key
+                int lo = 0, hi = terms;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (compare(mid, utf8, false) < 0) lo = mid + 1;
+                    else hi = mid;
+                }
+                for (int i = lo, n = 0; i < terms && n < MAX_EXPANSIONS; i++, n++) {
+                    if (compare(i, utf8, prefix) != 0) break;
+                    int e = HEADER + i * ENTRY;
+                    int at = (int) (postingsAt + map.getLong(e + 8));
+                    int docFreq = map.getInt(e + 20);
+                    int skipBytes = blocks(docFreq) * SKIP_ENTRY;
+                    out.add(new Postings(from, docFreq, map.slice(at, skipBytes),
+                            map.slice(at + skipBytes, map.getInt(e + 16) - skipBytes)));
+                    if (!prefix) break;
+                }
+            }
+
+            // Compares entry i's term with key; with prefix, a term that starts with key compares equal
+            private int compare(int i, byte[] key, boolean prefix) {
+                int e = HEADER + i * ENTRY;
+                int at = (int) termsAt + map.getInt(e);
+                int length = map.getInt(e + 4);
+                for (int j = 0; j < Math.min(length, key.length); j++) {
+                    int c = Integer.compare(map.get(at + j) & 0xFF, key[j] & 0xFF);
+                    if (c != 0) return c;
+                }
+                return prefix && length >= key.length ? 0 : Integer.compare(length, key.length);
+            }
+        }
+
+        // A query hit: entry number within the current note (0-based) and its score
+        static final class Hit {
+            final long entry;
+            final double score;
+
+            Hit(long entry, double score) {
+                this.entry = entry;
+                this.score = score;
+            }
+        }
+
+        private final NoteLog log;
+        private final Path dir;
+        private volatile List<Segment> segments = List.of(); // in record order, replaced whole
+        private MemorySegment memory;
+        private Thread flusher;
+
+        private NoteSearch(NoteLog log, Path dir) {
+            this.log = log;
+            this.dir = dir;
+        }
+
+        // Opens the index of log, bringing it up to date, and attaches it so appends are indexed
+        static NoteSearch open(NoteLog log) throws IOException {
+            Path dir = log.dir.resolve(DIR);
+            Files.createDirectories(dir);
+            NoteSearch search = new NoteSearch(log, dir);
+            long records = log.recordCount();
+            List<DiskSegment> found = new ArrayList<>();
+            try (Stream<Path> list = Files.list(dir)) {
+                for (Path p : list.toList()) {
+                    if (!p.getFileName().toString().endsWith(".fts")) {
+                        Files.delete(p); // a temp file from an interrupted write
+                        continue;
+                    }
+                    try {
+                        found.add(new DiskSegment(p));
+                    } catch (IOException e) {
+                        Files.delete(p);
+                    }
+                }
+            }
+            found.sort(Comparator.comparingLong((DiskSegment d) -> d.from).thenComparingLong(d -> -d.to));
+            // Segments past a gap, or covering records the log lost in a crash, are dropped
+            List<Segment> kept = new ArrayList<>();
+            long covered = 0;
+            for (DiskSegment d : found) {
+                if (d.from == covered && d.to <= records) {
+                    kept.add(d);
+                    covered = d.to;
+                } else {
+                    d.channel.close();
+                    Files.delete(d.path);
+                }
+            }
+            covered = search.build(covered, records - (records - covered) % SEGMENT_DOCS, kept);
+            synchronized (log) {
+                MemorySegment memory = new MemorySegment(covered);
+                long end = log.recordCount();
+                log.forEachText(covered, end, (record, text) -> memory.add(record, decode(text)));
+                search.memory = memory;
+                kept.add(memory);
+                search.segments = List.copyOf(kept);
+                log.search = search;
+            }
+            return search;
+        }
+
+        /*
+         * Indexes records [from, to) into segment files, SEGMENT_DOCS records at a time,
+         * with one thread per processor. Returns where the covered range now ends.
+         */
+        private long build(long from, long to, List<Segment> kept) throws IOException {
+            if (from >= to) return from;
+            AtomicLong next = new AtomicLong(from);
+            List<Path> written = Collections.synchronizedList(new ArrayList<>());
+            AtomicReference<IOException> failure = new AtomicReference<>();
+            Thread[] workers = new Thread[Runtime.getRuntime().availableProcessors()];
+            for (int t = 0; t < workers.length; t++) {
+                workers[t] = new Thread(() -> {
+                    try {
+                        for (long start; (start = next.getAndAdd(SEGMENT_DOCS)) < to; ) {
+                            long end = Math.min(to, start + SEGMENT_DOCS);
+                            MemorySegment[] m = { new MemorySegment(start) };
+                            log.forEachText(start, end, (record, text) -> {
+                                if (m[0].full()) {
+                                    written.add(m[0].write(dir, record));
+                                    m[0] = new MemorySegment(record);
+                                }
+                                m[0].add(record, decode(text));
+                            });
+                            written.add(m[0].write(dir, end));
+                        }
+                    } catch (IOException e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }, "note-search-build-" + t);
+                workers[t].start();
+            }
+            try {
+                for (Thread w : workers) w.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while building the search index");
+            }
+            if (failure.get() != null) throw failure.get();
+            List<DiskSegment> built = new ArrayList<>();
+            for (Path p : written) built.add(new DiskSegment(p));
+            built.sort(Comparator.comparingLong(d -> d.from));
+            kept.addAll(built);
+            return to;
+        }
+
+        private static String decode(ByteBuffer utf8) {
+            return StandardCharsets.UTF_8.decode(utf8).toString();
+        }
+
+        // Called by the log, under its lock, for every record appended
+        void add(long record, String text) {
+            if (memory.full()) seal(record);
+            memory.add(record, text);
+        }
+
+        // Freezes the memory segment at record and writes it out in the background
+        private void seal(long record) {
+            MemorySegment frozen = memory;
+            memory = new MemorySegment(record);
+            synchronized (this) {
+                List<Segment> next = new ArrayList<>(segments);
+                next.add(memory);
+                segments = List.copyOf(next);
+            }
+            Thread previous = flusher;
+            flusher = new Thread(() -> {
+                try {
+                    if (previous != null) previous.join();
+                    DiskSegment disk = new DiskSegment(frozen.write(dir, record));
+                    synchronized (this) {
+                        List<Segment> swapped = new ArrayList<>(segments);
+                        swapped.set(swapped.indexOf(frozen), disk);
+                        segments = List.copyOf(swapped);
+                    }
+                } catch (IOException e) {
+                    System.err.println("Writing search segment failed: " + e.getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "note-search-flush");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+
+        interface TokenConsumer {
+            void accept(String term, int position);
+        }
+
+        // Splits text into lower-cased runs of letters and digits
+        static void tokenize(String text, TokenConsumer consumer) {
+            StringBuilder term = new StringBuilder();
+            int position = 0;
+            for (int i = 0; i <= text.length(); ) {
+                int c = i < text.length() ? text.codePointAt(i) : ' ';
+                if (Character.isLetterOrDigit(c)) {
+                    if (term.length() < MAX_TERM) term.appendCodePoint(Character.toLowerCase(c));
+                } else if (term.length() > 0) {
+                    consumer.accept(term.toString(), position++);
+                    term.setLength(0);
+                }
+                i += Character.charCount(c);
+            }
+        }
+
+        // One query clause: a term, a prefix, or a phrase of two or more terms
+        private static final class Clause {
+            final String[] terms;
+            final byte[][] utf8;
+            final boolean prefix;
+            double idf;
+
+            Clause(List<String> terms, boolean prefix) {
+                this.terms = terms.toArray(new String[0]);
+                this.utf8 = new byte[this.terms.length][];
+                for (int i = 0; i < utf8.length; i++) utf8[i] = this.terms[i].getBytes(StandardCharsets.UTF_8);
+                this.prefix = prefix;
+            }
+        }
+
+        private static List<Clause> parse(String query) {
+            List<Clause> clauses = new ArrayList<>();
+            String[] parts = query.split("\"", -1);
+            for (int i = 0; i < parts.length; i++) {
+                if (i % 2 == 1) { // inside quotes
+                    List<String> phrase = new ArrayList<>();
+                    tokenize(parts[i], (term, position) -> phrase.add(term));
+                    if (!phrase.isEmpty()) clauses.add(new Clause(phrase, false));
+                    continue;
+                }
+                for (String word : parts[i].trim().split("\\s+")) {
+                    boolean prefix = word.endsWith("*");
+                    List<String> terms = new ArrayList<>();
+                    tokenize(word, (term, position) -> terms.add(term));
+                    for (int t = 0; t < terms.size(); t++) {
+                        boolean last = t == terms.size() - 1;
+                        clauses.add(new Clause(List.of(terms.get(t)), prefix && last));
+                    }
+                }
+            }
+            return clauses;
+        }
+
+        // Frequencies of one clause's records in a segment, asked for in increasing record order
+        private interface Probe {
+            // Term frequency of doc, 0 if the clause does not match it
+            int tf(long doc);
+        }
+
+        // Records of one segment matching a clause, in order, with their term frequency (and positions)
+        private static final class DocList implements Probe {
+            long[] docs;
+            int[] tfs;
+            int[] posStart;    // doc i's positions are [posStart[i], posStart[i + 1]); only for phrase terms
+            int[] positions;
+            int size;
+
+            DocList(int capacity) {
+                docs = new long[Math.max(1, capacity)];
+                tfs = new int[docs.length];
+            }
+
+            static DocList decode(Postings p, boolean withPositions) {
+                DocList list = new DocList(p.docFreq);
+                if (withPositions) {
+                    list.posStart = new int[p.docFreq + 1];
+                    list.positions = new int[p.docFreq * 2 + 1];
+                }
+                ByteBuffer b = p.bytes;
+                int at = 0, end = b.limit(), stored = 0;
+                long doc = p.base;
+                while (at < end) {
+                    long v = 0;
+                    int shift = 0, x;
+                    do {
+                        x = b.get(at++);
+                        v |= (long) (x & 0x7F) << shift;
+                        shift += 7;
+                    } while (x < 0);
+                    doc += v;
+                    int tf = 0;
+                    shift = 0;
+                    do {
+                        x = b.get(at++);
+                        tf |= (x & 0x7F) << shift;
+                        shift += 7;
+                    } while (x < 0);
+                    int position = 0;
+                    for (int i = 0; i < tf; i++) {
+                        int delta = 0;
+                        shift = 0;
+                        do {
+                            x = b.get(at++);
+                            delta |= (x & 0x7F) << shift;
+                            shift += 7;
+                        } while (x < 0);
+                        position += delta;
+                        if (withPositions) {
+                            if (stored == list.positions.length) list.positions = Arrays.copyOf(list.positions, stored * 2);
+                            list.positions[stored++] = position;
+                        }
+                    }
+                    list.add(doc, tf);
+                    if (withPositions) list.posStart[list.size] = stored;
+                }
+                return list;
+            }
+
+            void add(long doc, int tf) {
+                if (size == docs.length) {
+                    docs = Arrays.copyOf(docs, size * 2);
+                    tfs = Arrays.copyOf(tfs, size * 2);
+                }
+                docs[size] = doc;
+                tfs[size++] = tf;
+            }
+
+            int find(long doc) {
+                return Arrays.binarySearch(docs, 0, size, doc);
+            }
+
+            @Override
+            public int tf(long doc) {
+                int at = find(doc);
+                return at < 0 ? 0 : tfs[at];
+            }
+
+            // Union of two lists, adding the frequencies of records in both
+            static DocList union(DocList a, DocList b) {
+                DocList u = new DocList(a.size + b.size);
+                int i = 0, j = 0;
+                while (i < a.size || j < b.size) {
+                    if (j == b.size || (i < a.size && a.docs[i] < b.docs[j])) u.add(a.docs[i], a.tfs[i++]);
+                    else if (i == a.size || b.docs[j] < a.docs[i]) u.add(b.docs[j], b.tfs[j++]);
+                    else u.add(a.docs[i], a.tfs[i++] + b.tfs[j++]);
+                }
+                return u;
+            }
+        }
+
+        // Walks one postings list forward, decoding only the blocks that may hold the records asked for
+        private static final class Cursor implements Probe {
+            private final Postings p;
+            private final int blocks;
+            private final long[] docs = new long[SKIP_INTERVAL];
+            private final int[] tfs = new int[SKIP_INTERVAL];
+            private int block = -1, count, at;
+
+            Cursor(Postings p) {
+                this.p = p;
+                this.blocks = blocks(p.docFreq);
+            }
+
+            @Override
+            public int tf(long doc) {
+                if (block == blocks) return 0;
+                if (block < 0 || docs[count - 1] < doc) {
+                    // First later block whose last record is not below doc
+                    int lo = block + 1, hi = blocks;
+                    while (lo < hi) {
+                        int mid = (lo + hi) >>> 1;
+                        if (p.skips.getLong(mid * SKIP_ENTRY) < doc) lo = mid + 1;
+                        else hi = mid;
+                    }
+                    if (lo == blocks) {
+                        block = blocks;
+                        return 0;
+                    }
+                    load(lo);
+                }
+                while (docs[at] < doc) at++;
+                return docs[at] == doc ? tfs[at] : 0;
+            }
+
+            // Decodes block b's records and frequencies, stepping over positions
+            private void load(int b) {
+                ByteBuffer bytes = p.bytes;
+                int pos = b == 0 ? 0 : p.skips.getInt((b - 1) * SKIP_ENTRY + 8);
+                long doc = b == 0 ? p.base : p.skips.getLong((b - 1) * SKIP_ENTRY);
+                count = Math.min(SKIP_INTERVAL, p.docFreq - b * SKIP_INTERVAL);
+                for (int i = 0; i < count; i++) {
+                    long v = 0;
+                    int shift = 0, x;
+                    do {
+                        x = bytes.get(pos++);
+                        v |= (long) (x & 0x7F) << shift;
+                        shift += 7;
+                    } while (x < 0);
+                    int tf = 0;
+                    shift = 0;
+                    do {
+                        x = bytes.get(pos++);
+                        tf |= (x & 0x7F) << shift;
+                        shift += 7;
+                    } while (x < 0);
+                    for (int j = 0; j < tf; j++) {
+                        while (bytes.get(pos++) < 0) {
+                            // continuation bytes of a position delta
+                        }
+                    }
+                    docs[i] = doc += v;
+                    tfs[i] = tf;
+                }
+                block = b;
+                at = 0;
+            }
+        }
+
+        /*
+         * Returns the k best hits for query among the current note's entries. Clauses
+         * are combined with AND; a clause that matches nothing means no hits.
+         */
+        List<Hit> search(String query, int k) throws IOException {
+            List<Clause> clauses = parse(query);
+            if (clauses.isEmpty() || k <= 0) return List.of();
+            List<Segment> view = segments;
+            long firstRecord = log.firstRecord();
+            double docs = Math.max(1, log.recordCount());
+
+            // postings[segment][clause][term] -> postings lists; prefix clauses may have several per term
+            List<List<List<List<Postings>>>> postings = new ArrayList<>();
+            long[][] df = new long[clauses.size()][];
+            for (int c = 0; c < clauses.size(); c++) df[c] = new long[clauses.get(c).terms.length];
+            for (Segment seg : view) {
+                List<List<List<Postings>>> perClause = new ArrayList<>();
+                for (int c = 0; c < clauses.size(); c++) {
+                    Clause clause = clauses.get(c);
+                    List<List<Postings>> perTerm = new ArrayList<>();
+                    for (int t = 0; t < clause.terms.length; t++) {
+                        List<Postings> found = new ArrayList<>();
+                        seg.lookup(clause.terms[t], clause.utf8[t], clause.prefix, found);
+                        for (Postings p : found) df[c][t] += p.docFreq;
+                        perTerm.add(found);
+                    }
+                    perClause.add(perTerm);
+                }
+                postings.add(perClause);
+            }
+            for (int c = 0; c < clauses.size(); c++) {
+                long rarest = Arrays.stream(df[c]).min().orElse(0);
+                if (rarest == 0) return List.of();
+                clauses.get(c).idf = Math.log(1 + docs / rarest);
+            }
+
+            // Min-heap on (score, record), so the weakest of the best k is on top
+            PriorityQueue<double[]> best = new PriorityQueue<>(Math.min(k, 1024) + 1,
+                    Comparator.<double[]>comparingDouble(h -> h[0]).thenComparingDouble(h -> h[1]));
+            for (int s = view.size() - 1; s >= 0; s--) {
+                // This segment and all older ones end before the current note
+                if (s + 1 < view.size() && view.get(s + 1).from() <= firstRecord) break;
+                List<List<List<Postings>>> perClause = postings.get(s);
+                // The clause expected to match fewest records drives, the others are probed
+                Integer[] order = new Integer[clauses.size()];
+                long[] expected = new long[clauses.size()];
+                for (int c = 0; c < order.length; c++) {
+                    order[c] = c;
+                    expected[c] = expectedMatches(clauses.get(c), perClause.get(c));
+                }
+                Arrays.sort(order, Comparator.comparingLong(c -> expected[c]));
+                if (expected[order[0]] == 0) continue;
+
+                // Best possible score of a record here, from the skip entries alone
+                double[] weights = new double[order.length];
+                double driverBound = 0, probedBound = 0;
+                for (int c = 0; c < order.length; c++) {
+                    weights[c] = clauses.get(order[c]).idf;
+                    double clauseBound = weights[c] * (1 + Math.log(maxTf(perClause.get(order[c]))));
+                    if (c == 0) driverBound = clauseBound;
+                    else probedBound += clauseBound;
+                }
+                if (best.size() == k && driverBound + probedBound < best.peek()[0]) continue;
+
+                DocList driver = match(clauses.get(order[0]), perClause.get(order[0]));
+                Probe[] probes = new Probe[order.length];
+                for (int c = 1; c < order.length; c++) probes[c] = probe(clauses.get(order[c]), perClause.get(order[c]));
+                int start = driver.find(firstRecord);
+                next:
+                for (int i = start < 0 ? -start - 1 : start; i < driver.size; i++) {
+                    long doc = driver.docs[i];
+                    double score = weights[0] * (1 + Math.log(driver.tfs[i]));
+                    if (best.size() == k && score + probedBound < best.peek()[0]) continue;
+                    for (int c = 1; c < order.length; c++) {
+                        int tf = probes[c].tf(doc);
+                        if (tf == 0) continue next;
+                        score += weights[c] * (1 + Math.log(tf));
+                    }
+                    if (best.size() == k) {
+                        double[] weakest = best.peek();
+                        if (score < weakest[0] || (score == weakest[0] && doc < weakest[1])) continue;
+                        best.poll();
+                    }
+                    best.add(new double[] { score, doc });
+                }
+            }
+            List<Hit> hits = new ArrayList<>(best.size());
+            while (!best.isEmpty()) {
+                double[] h = best.poll();
+                hits.add(new Hit((long) h[1] - firstRecord, h[0]));
+            }
+            Collections.reverse(hits);
+            return hits;
+        }
+
+        // Upper bound on the records of one segment a clause matches
+        private static long expectedMatches(Clause clause, List<List<Postings>> perTerm) {
+            long expected = Long.MAX_VALUE;
+            for (List<Postings> lists : perTerm) {
+                long sum = 0;
+                for (Postings p : lists) sum += p.docFreq;
+                expected = Math.min(expected, sum); // a phrase matches no more than its rarest term
+            }
+            return expected;
+        }
+
+        /*
+         * Upper bound on a clause's term frequency in one record: a prefix clause adds up
+         * the lists it expanded to, a phrase occurs no more often than its rarest term.
+         */
+        private static int maxTf(List<List<Postings>> perTerm) {
+            int bound = Integer.MAX_VALUE;
+            for (List<Postings> lists : perTerm) {
+                int sum = 0;
+                for (Postings p : lists) {
+                    int max = 0;
+                    for (int b = 0; b < blocks(p.docFreq); b++) max = Math.max(max, p.skips.getInt(b * SKIP_ENTRY + 12));
+                    sum += max;
+                }
+                bound = Math.min(bound, sum);
+            }
+            return bound;
+        }
+
+        // A single postings list is walked through its skip entries, anything else is decoded
+        private static Probe probe(Clause clause, List<List<Postings>> perTerm) {
+            if (clause.terms.length == 1 && perTerm.get(0).size() == 1) return new Cursor(perTerm.get(0).get(0));
+            return match(clause, perTerm);
+        }
+
+        // Records of one segment that match a clause
+        private static DocList match(Clause clause, List<List<Postings>> perTerm) {
+            if (clause.terms.length == 1) {
+                List<Postings> lists = perTerm.get(0);
+                DocList result = lists.isEmpty() ? new DocList(0) : DocList.decode(lists.get(0), false);
+                for (int i = 1; i < lists.size(); i++) result = DocList.union(result, DocList.decode(lists.get(i), false));
+                return result;
+            }
+            DocList[] lists = new DocList[clause.terms.length];
+            for (int t = 0; t < lists.length; t++) {
+                if (perTerm.get(t).isEmpty()) return new DocList(0);
+                lists[t] = DocList.decode(perTerm.get(t).get(0), true);
+            }
+            DocList result = new DocList(0);
+            for (int i = 0; i < lists[0].size; i++) {
+                long doc = lists[0].docs[i];
+                int[] at = new int[lists.length];
+                boolean all = true;
+                for (int t = 1; t < lists.length && all; t++) all = (at[t] = lists[t].find(doc)) >= 0;
+                if (!all) continue;
+                int occurrences = 0;
+                for (int p = lists[0].posStart[i]; p < lists[0].posStart[i + 1]; p++) {
+                    int start = lists[0].positions[p];
+                    boolean phrase = true;
+                    for (int t = 1; t < lists.length && phrase; t++) {
+                        DocList l = lists[t];
+                        phrase = Arrays.binarySearch(l.positions, l.posStart[at[t]], l.posStart[at[t] + 1], start + t) >= 0;
+                    }
+                    if (phrase) occurrences++;
+                }
+                if (occurrences > 0) result.add(doc, occurrences);
+            }
+            return result;
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (log) {
+                if (log.search == this) log.search = null;
+            }
+            try {
+                if (flusher != null) flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (Segment s : segments) {
+                if (s instanceof DiskSegment d) d.channel.close();
+            }
+        }
+    }
+
+    // ===== Note feed =====
+
+    /*
+     * Follows a note log directory from outside the writing process and streams new
+     * entries to subscribers. Each subscriber has its own cursor, a log position, and
+     * gets every entry after it in order together with the position after that entry,
+     * which is where it can resume later (positions stay valid across compaction).
+     *
+     * A WatchService on the directory wakes the feed when segments are created,
+     * replaced or deleted and when the offset index is written (every INDEX_INTERVAL
+     * records). Appends through the mapped segment raise no file events, so the feed
+     * also wakes every MAX_LATENCY_MILLIS; that bounds how late an entry can arrive.
+     * Only complete records with a matching checksum are delivered.
+     *
+     * When a subscriber reaches the end of a sealed segment it moves on to the next
+     * one. If the log is truncated under it (its segment disappears, is recreated, or
+     * the log ends before its cursor) it is told with onReset and restarts from the
+     * start of the log.
+     */
+    static final class NoteFeed implements AutoCloseable {
+        static final long FROM_END = -1;
+        static final long MAX_LATENCY_MILLIS = 100;
+
+        // One note entry as seen by a subscriber
+        static final class Entry {
+            final long position;  // where the record starts
+            final long next;      // cursor for the entry after it
+            final boolean overwrite;
+            final long millis;
+            final String text;
+
+            Entry(long position, long next, boolean overwrite, long millis, String text) {
+                this.position = position;
+                this.next = next;
+                this.overwrite = overwrite;
+                this.millis = millis;
+                this.text = text;
+            }
+        }
+
+        // Called on the feed thread
+        interface Subscriber {
+            void onEntry(Entry entry);
+
+            // The log was truncated or replaced; entries continue from position
+            default void onReset(long position) {
+            }
+        }
+
+        static final class Subscription {
+            private final Subscriber subscriber;
+            private volatile long position;
+            private volatile boolean cancelled;
+
+            private Subscription(Subscriber subscriber, long position) {
+                this.subscriber = subscriber;
+                this.position = position;
+            }
+
+            // Position of the next entry this subscriber will get
+            long position() {
+                return position;
+            }
+
+            void cancel() {
+                cancelled = true;
+            }
+        }
+
+        // An open segment and the file it was opened from
+        private static final class Source {
+            final NoteLog.Segment segment;
+            final Object fileKey;
+
+            Source(NoteLog.Segment segment, Object fileKey) {
+                this.segment = segment;
+                this.fileKey = fileKey;
+            }
+        }
+
+        private final Path dir;
+        private final WatchService watcher;
+        private WatchKey key;
+        private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+        private final TreeMap<Long, Source> sources = new TreeMap<>(); // by base; only the feed thread uses it
+        private final CRC32 crc = new CRC32();
+        private final Thread thread;
+        private volatile boolean closed;
+
+        private NoteFeed(Path dir) throws IOException {
+            this.dir = dir;
+            watcher = dir.getFileSystem().newWatchService();
+            thread = new Thread(this::run, "note-feed");
+            thread.setDaemon(true);
+        }
+
+        static NoteFeed open(Path dir) throws IOException {
+            NoteFeed feed = new NoteFeed(dir);
+            feed.thread.start();
+            return feed;
+        }
+
+        // Delivers entries from position (a log position, 0 for the start, or FROM_END) onwards
+        Subscription subscribe(long position, Subscriber subscriber) {
+            Subscription s = new Subscription(subscriber, position);
+            subscriptions.add(s);
+            return s;
+        }
+
+        private void run() {
+            while (!closed) {
+                try {
+                    if (key == null || !key.isValid()) {
+                        key = Files.isDirectory(dir) ? dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE) : null;
+                    }
+                    refresh();
+                    for (Subscription s : subscriptions) {
+                        if (s.cancelled) subscriptions.remove(s);
+                        else advance(s);
+                    }
+                    WatchKey signalled = watcher.poll(MAX_LATENCY_MILLIS, TimeUnit.MILLISECONDS);
+                    if (signalled != null) {
+                        signalled.pollEvents();
+                        signalled.reset();
+                    }
+                } catch (InterruptedException | ClosedWatchServiceException e) {
+                    return;
+                } catch (IOException e) {
+                    System.err.println("Note feed: " + e.getMessage());
+                    try {
+                        Thread.sleep(MAX_LATENCY_MILLIS);
+                    } catch (InterruptedException stop) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        /*
+         * Brings the open segments in line with the directory: a packed file wins over a
+         * mapped one at the same base, and a file that was replaced is reopened. Subscribers
+         * inside or past a segment that was deleted, or recreated under the same name, are reset.
+         */
+        private void refresh() throws IOException {
+            TreeMap<Long, Path> files = new TreeMap<>();
+            if (Files.isDirectory(dir)) {
+                try (Stream<Path> list = Files.list(dir)) {
+                    for (Path p : list.toList()) {
+                        String name = p.getFileName().toString();
+                        if (name.endsWith(".segz")) files.put(Long.parseLong(name.replace(".segz", "")), p);
+                        else if (name.endsWith(".seg")) files.putIfAbsent(Long.parseLong(name.replace(".seg", "")), p);
+                    }
+                } catch (NoSuchFileException e) {
+                    files.clear();
+                }
+            }
+            long truncatedAt = Long.MAX_VALUE; // subscribers past this position lost their place
+            for (Iterator<Map.Entry<Long, Source>> it = sources.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<Long, Source> e = it.next();
+                if (!files.containsKey(e.getKey())) {
+                    e.getValue().segment.channel.close();
+                    it.remove();
+                    truncatedAt = Math.min(truncatedAt, e.getKey());
+                }
+            }
+            for (Map.Entry<Long, Path> f : files.entrySet()) {
+                long base = f.getKey();
+                Path path = f.getValue();
+                Object fileKey;
+                try {
+                    fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+                } catch (NoSuchFileException e) {
+                    continue; // replaced while listing; picked up next time
+                }
+                Source known = sources.get(base);
+                boolean growing = known != null && known.segment.map != null
+                        && known.segment.map.capacity() < NoteLog.SEGMENT_SIZE; // caught before pre-allocation
+                if (known != null && known.segment.path.equals(path) && Objects.equals(known.fileKey, fileKey) && !growing) {
+                    continue;
+                }
+                boolean recreated = known != null && known.segment.path.equals(path) && known.segment.map != null
+                        && !Objects.equals(known.fileKey, fileKey);
+                Source opened;
+                try {
+                    opened = new Source(openSegment(base, path), fileKey);
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                if (known != null) known.segment.channel.close();
+                sources.put(base, opened);
+                if (recreated) truncatedAt = Math.min(truncatedAt, base);
+            }
+            for (Subscription s : subscriptions) {
+                if (s.position != FROM_END && s.position > truncatedAt) reset(s);
+            }
+        }
+
+        private static NoteLog.Segment openSegment(long base, Path path) throws IOException {
+            if (path.getFileName().toString().endsWith(".segz")) return NoteLog.PackedSegment.open(base, path);
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                long size = Math.min(channel.size(), NoteLog.SEGMENT_SIZE);
+                return new NoteLog.Segment(base, path, channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        private void reset(Subscription s) {
+            s.position = sources.isEmpty() ? 0 : sources.firstKey();
+            s.subscriber.onReset(s.position);
+        }
+
+        // Delivers every complete entry after the subscriber's cursor
+        private void advance(Subscription s) throws IOException {
+            if (sources.isEmpty()) return;
+            if (s.position == FROM_END) s.position = end();
+            while (!s.cancelled) {
+                Map.Entry<Long, Source> at = sources.floorEntry(s.position);
+                if (at == null) {
+                    reset(s);
+                    continue;
+                }
+                NoteLog.Segment seg = at.getValue().segment;
+                Long nextBase = sources.higherKey(at.getKey());
+                long pos = s.position - seg.base;
+                int limit = nextBase != null ? (int) (nextBase - seg.base) : capacity(seg);
+                if (nextBase != null && (pos >= limit || seg.dropped())) {
+                    s.position = nextBase; // rotated into the next segment, or nothing left to read here
+                    continue;
+                }
+                if (pos > limit) {
+                    reset(s); // the log ends before the cursor
+                    return;
+                }
+                int length = recordLength(seg, (int) pos, limit);
+                if (length < 0) {
+                    if (nextBase != null) reset(s); // a sealed segment that does not match the cursor
+                    return;                         // otherwise nothing new yet
+                }
+                ByteBuffer body = seg.slice((int) pos + 8, length);
+                byte[] text = new byte[length - 9];
+                body.get(9, text);
+                long next = s.position + 8 + length;
+                s.subscriber.onEntry(new Entry(s.position, next, body.get(0) == NoteLog.OVERWRITE, body.getLong(1),
+                        new String(text, StandardCharsets.UTF_8)));
+                s.position = next;
+            }
+        }
+
+        private static int capacity(NoteLog.Segment seg) {
+            return seg.map != null ? seg.map.capacity() : seg.end;
+        }
+
+        // Position just after the last complete record in the log
+        private long end() throws IOException {
+            Map.Entry<Long, Source> last = sources.lastEntry();
+            NoteLog.Segment seg = last.getValue().segment;
+            if (seg.dropped()) return seg.base + seg.end;
+            int pos = 0;
+            for (int length; (length = recordLength(seg, pos, capacity(seg))) > 0; ) pos += 8 + length;
+            return seg.base + pos;
+        }
+
+        // Length of the record at pos if it is complete and its checksum matches, otherwise -1
+        private int recordLength(NoteLog.Segment seg, int pos, int limit) throws IOException {
+            if (pos + 8 > limit) return -1;
+            int length = seg.getInt(pos);
+            if (length < 9 || length > limit - pos - 8) return -1;
+            crc.reset();
+            crc.update(seg.slice(pos + 8, length));
+            return (int) crc.getValue() == seg.getInt(pos + 4) ? length : -1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            watcher.close();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (Source s : sources.values()) s.segment.channel.close();
+        }
+    }
+
+    // ===== Benchmarks =====
+
+    // Usage: java NotesApp_task4.java --bench [sizes (notes in the log), e.g. 1000,100000,1000000]
+    private static void runBenchmarks(String[] args) {
+        try {
+            String note = "Meeting notes: follow up with the team about the quarterly report.";
+            NullChannel discard = new NullChannel();
+            for (NoteLog.SyncPolicy policy : NoteLog.SyncPolicy.values()) {
+                Path dir = Files.createTempDirectory("notes-bench");
+                try (NoteLog log = NoteLog.open(dir, policy)) {
+                    Bench.run("append (" + policy + ")", 1, 100_000, i -> io(() -> log.append(note)));
+                    Bench.run("overwrite (" + policy + ")", 1, 20_000, i -> io(() -> log.overwrite(note)));
+                } finally {
+                    deleteTree(dir);
+                }
+            }
+            benchConcurrentAppends(note, NoteLog.SyncPolicy.EVERY_WRITE, 8, 2_000);
+            benchConcurrentAppends(note, NoteLog.SyncPolicy.GROUP, 8, 50_000);
+            benchAsyncAppends(note);
+            benchCompaction();
+            benchFeed(note);
+            for (int size : Bench.sizes(args, 1)) {
+                Path dir = Files.createTempDirectory("notes-bench");
+                try {
+                    try (NoteLog log = NoteLog.open(dir, NoteLog.SyncPolicy.PERIODIC)) {
+                        log.overwrite(note);
+                        for (int i = 1; i < size; i++) log.append(note);
+                    }
+                    Bench.run("open (indexed)", size, 20,
+                            i -> io(() -> NoteLog.open(dir, NoteLog.SyncPolicy.PERIODIC).close()));
+                    Bench.run("open (rebuilding index)", size, 3, i -> io(() -> {
+                        Files.delete(dir.resolve(NoteLog.INDEX_FILE));
+                        NoteLog.open(dir, NoteLog.SyncPolicy.PERIODIC).close();
+                    }));
+                    try (NoteLog log = NoteLog.open(dir, NoteLog.SyncPolicy.PERIODIC)) {
+                        Random random = new Random(42);
+                        Bench.run("entry N", size, 200_000,
+                                i -> io(() -> Bench.sink += log.transfer(random.nextInt(size), 1, discard)));
+                        Bench.run("last " + PAGE_SIZE, size, 200_000,
+                                i -> io(() -> Bench.sink += log.transfer(size - PAGE_SIZE, PAGE_SIZE, discard)));
+                        Bench.run("page P", size, 200_000, i -> io(() -> Bench.sink +=
+                                log.transfer((long) random.nextInt(size / PAGE_SIZE) * PAGE_SIZE, PAGE_SIZE, discard)));
+                        Bench.run("read (whole note)", size, Math.max(10, Bench.opsFor(size) / 100),
+                                i -> io(() -> Bench.sink += log.transfer(0, size, discard)));
+                    }
+                } finally {
+                    deleteTree(dir);
+                }
+            }
+            for (int size : Bench.sizes(args, 1)) benchSearch(size);
+        } catch (IOException e) {
+            System.out.println("Benchmark failed: " + e.getMessage());
+        }
+    }
+
+    /*
+     * Search over a log of size synthetic entries drawn from a skewed vocabulary, so
+     * there are both common and rare terms: index build on open, then queries for top 20.
+     */
+    private static void benchSearch(int size) throws IOException {
+        Random random = new Random(7);
+        String[] words = new String[20_000];
+        for (int i = 0; i < words.length; i++) words[i] = "w" + Integer.toString(i, 36) + (char) ('a' + i % 26);
+        Path dir = Files.createTempDirectory("notes-bench");
+        try {
+            try (NoteLog log = NoteLog.open(dir, NoteLog.SyncPolicy.PERIODIC)) {
+                StringBuilder text = new StringBuilder();
+                for (int i = 0; i < size; i++) {
+                    text.setLength(0);
+                    for (int w = 0, n = 4 + random.nextInt(12); w < n; w++) {
+                        int rank = (int) Math.min(words.length - 1, Math.exp(random.nextDouble() * Math.log(words.length)) - 1);
+                        text.append(w == 0 ? "" : " ").append(words[rank]);
+                    }
+                    log.append(text.toString());
+                }
+            }
+            long start = System.nanoTime();
+            try (NoteLog log = NoteLog.open(dir, NoteLog.SyncPolicy.PERIODIC); NoteSearch search = NoteSearch.open(log)) {
+                System.out.printf("%-26s size=%-9d %10.1f ms%n", "search index build", size, (System.nanoTime() - start) / 1e6);
+                String[][] queries = {
+                        { "search (common term)", words[0] },
+                        { "search (rare term)", words[10_000] },
+                        { "search (two terms)", words[3] + " " + words[40] },
+                        { "search (phrase)", "\"" + words[1] + " " + words[2] + "\"" },
+                        { "search (prefix)", words[words.length / 2].substring(0, 3) + "*" } };
+                for (String[] q : queries) {
+                    Bench.run(q[0], size, Math.max(20, Bench.opsFor(size) / 20),
+                            i -> io(() -> Bench.sink += search.search(q[1], PAGE_SIZE).size()));
+                }
+                String note = "Meeting notes: follow up with the team about the quarterly report.";
+                Bench.run("append (PERIODIC, indexed)", size, 100_000, i -> io(() -> log.append(note)));
+            }
+            start = System.nanoTime();
+            try (NoteLog log = NoteLog.open(dir, NoteLog.SyncPolicy.PERIODIC)) {
+                NoteSearch.open(log).close();
+                System.out.printf("%-26s size=%-9d %10.1f ms%n", "search index reopen", size, (System.nanoTime() - start) / 1e6);
+            }
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    /*
+     * Durable small-note throughput: one caller appending with EVERY_WRITE (a force per
+     * note) against callers handing notes to a NoteWriter and waiting on the futures.
+     * Every future has completed, so every note is on disk, before the clock stops.
+     */
+    private static void benchAsyncAppends(String note) throws IOException {
+        double syncRate;
+        Path dir = Files.createTempDirectory("notes-bench");
+        try (NoteLog log = NoteLog.open(dir, NoteLog.SyncPolicy.EVERY_WRITE)) {
+            int ops = 20_000;
+            long start = System.nanoTime();
+            for (int i = 0; i < ops; i++) log.append(note);
+            syncRate = ops * 1e9 / (System.nanoTime() - start);
+            System.out.printf("%-26s threads=%-6d %13.0f ops/s%n", "append (EVERY_WRITE)", 1, syncRate);
+        } finally {
+            deleteTree(dir);
+        }
+        for (int threads : new int[] { 1, 8 }) {
+            dir = Files.createTempDirectory("notes-bench");
+            try (NoteLog log = NoteLog.open(dir, NoteLog.SyncPolicy.GROUP); NoteWriter writer = new NoteWriter(log)) {
+                int perThread = 400_000 / threads;
+                Thread[] workers = new Thread[threads];
+                long start = System.nanoTime();
+                for (int t = 0; t < threads; t++) {
+                    workers[t] = new Thread(() -> {
+                        CompletableFuture<?>[] pending = new CompletableFuture<?>[perThread];
+                        for (int i = 0; i < perThread; i++) pending[i] = writer.append(note);
+                        CompletableFuture.allOf(pending).join();
+                    });
+                    workers[t].start();
+                }
+                for (Thread w : workers) w.join();
+                double rate = (double) threads * perThread * 1e9 / (System.nanoTime() - start);
+                System.out.printf("%-26s threads=%-6d %13.0f ops/s  %.0fx EVERY_WRITE%n", "append (async writer)", threads,
+                        rate, rate / syncRate);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                deleteTree(dir);
+            }
+        }
+    }
+
+    /*
+     * A feed subscriber catching up on a log from position 0, then the delay between an
+     * append and its delivery when notes arrive a few at a time (about 25 a second).
+     */
+    private static void benchFeed(String note) throws IOException {
+        Path dir = Files.createTempDirectory("notes-bench");
+        try (NoteLog log = NoteLog.open(dir, NoteLog.SyncPolicy.PERIODIC); NoteFeed feed = NoteFeed.open(dir)) {
+            int backlog = 1_000_000;
+            for (int i = 0; i < backlog; i++) log.append(note);
+            CountDownLatch caughtUp = new CountDownLatch(backlog);
+            long start = System.nanoTime();
+            NoteFeed.Subscription catchUp = feed.subscribe(0, entry -> caughtUp.countDown());
+            caughtUp.await();
+            System.out.printf("%-26s entries=%-7d %13.0f entries/s (first wake included)%n", "feed catch-up", backlog,
+                    backlog * 1e9 / (System.nanoTime() - start));
+            catchUp.cancel();
+
+            int samples = 100;
+            Map<String, Long> sent = new ConcurrentHashMap<>();
+            long[] delays = new long[samples];
+            CountDownLatch delivered = new CountDownLatch(samples);
+            feed.subscribe(NoteFeed.FROM_END, entry -> {
+                Long at = sent.get(entry.text);
+                if (at != null) delays[(int) (samples - delivered.getCount())] = System.nanoTime() - at;
+                if (at != null) delivered.countDown();
+            });
+            Thread.sleep(2 * NoteFeed.MAX_LATENCY_MILLIS); // let the subscription find the end first
+            for (int i = 0; i < samples; i++) {
+                String text = "sample " + i;
+                sent.put(text, System.nanoTime());
+                log.append(text);
+                Thread.sleep(40);
+            }
+            delivered.await();
+            Arrays.sort(delays);
+            System.out.printf("%-26s samples=%-7d p50=%6.1fms  p99=%6.1fms  max=%6.1fms%n", "feed delivery delay", samples,
+                    delays[samples / 2] / 1e6, delays[(int) (samples * 0.99)] / 1e6, delays[samples - 1] / 1e6);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    // Disk use before and after packing sealed segments, and reading entries from packed and mapped segments
+    private static void benchCompaction() throws IOException {
+        Random random = new Random(11);
+        String[] words = { "meeting", "follow", "up", "report", "quarterly", "team", "budget", "review", "draft",
+                "call", "client", "notes", "design", "release", "bug", "fix", "plan", "sprint", "todo", "idea" };
+        Path dir = Files.createTempDirectory("notes-bench");
+        try (NoteLog log = NoteLog.open(dir, NoteLog.SyncPolicy.PERIODIC)) {
+            StringBuilder text = new StringBuilder();
+            long bytes = 0;
+            // Three and a half segments, so the newest entries are in the mapped active segment
+            while (bytes < 3L * NoteLog.SEGMENT_SIZE + NoteLog.SEGMENT_SIZE / 2) {
+                text.setLength(0);
+                text.append(random.nextInt(100_000));
+                for (int w = 0, n = 6 + random.nextInt(20); w < n; w++) text.append(' ').append(words[random.nextInt(words.length)]);
+                log.append(text.toString());
+                bytes += 8 + 9 + text.length();
+            }
+            long before = diskUse(dir);
+            long start = System.nanoTime();
+            log.compact();
+            long elapsed = System.nanoTime() - start;
+            long after = diskUse(dir);
+            long activeSize = NoteLog.SEGMENT_SIZE; // pre-allocated, never packed
+            System.out.printf("%-26s sealed %.1f MB -> %.1f MB (%.1fx), %.0f ms%n", "compaction",
+                    (before - activeSize) / 1e6, (after - activeSize) / 1e6, (double) (before - activeSize) / (after - activeSize),
+                    elapsed / 1e6);
+            long count = log.count();
+            NullChannel discard = new NullChannel();
+            Bench.run("entry N (packed)", (int) count, 200_000,
+                    i -> io(() -> Bench.sink += log.transfer(random.nextLong(count / 2), 1, discard)));
+            Bench.run("entry N (mapped)", (int) count, 200_000,
+                    i -> io(() -> Bench.sink += log.transfer(count - 1 - random.nextInt(1000), 1, discard)));
+            Bench.run("page P (packed)", (int) count, 100_000,
+                    i -> io(() -> Bench.sink += log.transfer(random.nextLong(count / 2), PAGE_SIZE, discard)));
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    private static long diskUse(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            long total = 0;
+            for (Path p : files.toList()) if (Files.isRegularFile(p)) total += Files.size(p);
+            return total;
+        }
+    }
+
+    // Threads appending at once: with GROUP they share forces, with EVERY_WRITE each waits for its own
+    private static void benchConcurrentAppends(String note, NoteLog.SyncPolicy policy, int threads, int perThread)
+            throws IOException {
+        Path dir = Files.createTempDirectory("notes-bench");
+        try (NoteLog log = NoteLog.open(dir, policy)) {
+            Thread[] workers = new Thread[threads];
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Thread(() -> {
+                    for (int i = 0; i < perThread; i++) io(() -> log.append(note));
+                });
+                workers[t].start();
+            }
+            for (Thread w : workers) w.join();
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%-26s threads=%-6d %13.0f ops/s%n", "concurrent (" + policy + ")", threads,
+                    (double) threads * perThread * 1e9 / elapsed);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    // Output channel that accepts and drops everything, so reads are measured without a device behind them
+    private static final class NullChannel implements GatheringByteChannel {
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            src.position(src.limit());
+            return n;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            long n = 0;
+            for (int i = offset; i < offset + length; i++) n += write(srcs[i]);
+            return n;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path p : files.toList()) {
+                if (Files.isDirectory(p)) deleteTree(p);
+                else Files.delete(p);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    interface IoAction {
+        void run() throws IOException;
+    }
+
+    private static void io(IoAction action) {
+        try {
+            action.run();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Benchmark harness, kept byte-identical in every app of this repository since each app compiles on its own
+    static final class Bench {
+        private static final com.sun.management.ThreadMXBean THREADS =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        static volatile long sink; // keeps benchmarked results alive
+        static java.io.PrintStream report = System.out; // results go here, so an app may silence System.out
+
+        /*
+         * Warm-up, then throughput, latency percentiles and bytes allocated per op.
+         * Ops that take under about 10us are timed in batches so the clock reads do not
+         * swamp them; their percentiles are of per-batch mean latency, which hides the
+         * tail, and are labelled "batch-mean". Slower ops are timed one at a time ("per-op").
+         */
+        static void run(String name, int size, int ops, IntConsumer op) {
+            int warmup = Math.min(ops, 50_000), half = warmup / 2;
+            for (int i = 0; i < half; i++) op.accept(i);
+            long warmupStart = System.nanoTime();
+            for (int i = half; i < warmup; i++) op.accept(i);
+            long estimate = Math.max(1, (System.nanoTime() - warmupStart) / Math.max(1, warmup - half));
+            int batch = (int) Math.max(1, Math.min(Math.max(1, ops / 100), 10_000 / estimate));
+            int batches = (ops + batch - 1) / batch;
+            double[] latencies = new double[batches];
+            long allocated = THREADS.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            for (int b = 0, i = 0; b < batches; b++) {
+                int end = Math.min(ops, i + batch), count = end - i;
+                long t = System.nanoTime();
+                for (; i < end; i++) op.accept(i);
+                latencies[b] = (double) (System.nanoTime() - t) / count;
+            }
+            long elapsed = System.nanoTime() - start;
+            allocated = THREADS.getCurrentThreadAllocatedBytes() - allocated;
+            Arrays.sort(latencies);
+            report.printf("%-26s size=%-9d %13.0f ops/s  %-10s p50=%8.0fns  p99=%9.0fns  p99.9=%10.0fns  %9.1f B/op%n",
+                    name, size, ops * 1e9 / elapsed, batch > 1 ? "batch-mean" : "per-op", latencies[batches / 2],
+                    latencies[(int) (batches * 0.99)], latencies[(int) (batches * 0.999)], (double) allocated / ops);
+        }
+
+        // Operation count for an O(size) operation, so each benchmark runs in about a second
+        static int opsFor(int size) {
+            return (int) Math.max(200, Math.min(200_000, 200_000_000L / size));
+        }
+
+        // Comma-separated sizes from args[at], or the defaults
+        static int[] sizes(String[] args, int at) {
+            if (args.length <= at) return new int[] { 1_000, 100_000, 1_000_000 };
+            return Arrays.stream(args[at].split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+        }
+    }
 }
@@ -1,6 +1,9 @@
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Scanner;
+import java.util.function.IntConsumer;
 
 class QuizQuestion {
     private String question;
@@ -29,6 +32,11 @@ class QuizQuestion {
 public class QuizApp {
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--bench")) {
+            runBenchmarks(args);
+            return;
+        }
+
         Scanner sc = new Scanner(System.in);
 
         List<QuizQuestion> questions = createQuestions();
@@ -51,7 +59,7 @@ public class QuizApp {
             int userAnswer = readAnswer(sc, 1, options.size());
 
             // Convert to 0-based index
-            if (userAnswer - 1 == q.getCorrectOptionIndex()) {
+            if (isCorrect(q, userAnswer - 1)) {
                 System.out.println("✅ Correct!");
                 score++;
             } else {
@@ -78,6 +86,85 @@ public class QuizApp {
         sc.close();
     }
 
+    // 0-based answer index
+    static boolean isCorrect(QuizQuestion q, int answerIndex) {
+        return answerIndex == q.getCorrectOptionIndex();
+    }
+
+    // Scores a full answer sheet (0-based answer per question)
+    static int score(List<QuizQuestion> questions, int[] answers) {
+        int score = 0;
+        for (int i = 0; i < questions.size(); i++) {
+            if (isCorrect(questions.get(i), answers[i])) score++;
+        }
+        return score;
+    }
+
+    // Usage: java QuizApp --bench [sizes (questions per quiz), e.g. 1000,100000,10000000]
+    private static void runBenchmarks(String[] args) {
+        List<QuizQuestion> sample = createQuestions();
+        for (int size : Bench.sizes(args, 1)) {
+            List<QuizQuestion> questions = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) questions.add(sample.get(i % sample.size()));
+            java.util.Random random = new java.util.Random(42);
+            int[][] sheets = new int[8][size];
+            for (int[] sheet : sheets) {
+                for (int i = 0; i < size; i++) sheet[i] = random.nextInt(4);
+            }
+            Bench.run("score answer sheet", size, Bench.opsFor(size), i -> Bench.sink += score(questions, sheets[i & 7]));
+        }
+    }
+
+    // Benchmark harness, kept byte-identical in every app of this repository since each app compiles on its own
+    static final class Bench {
+        private static final com.sun.management.ThreadMXBean THREADS =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        static volatile long sink; // keeps benchmarked results alive
+        static java.io.PrintStream report = System.out; // results go here, so an app may silence System.out
+
+        /*
+         * Warm-up, then throughput, latency percentiles and bytes allocated per op.
+         * Ops that take under about 10us are timed in batches so the clock reads do not
+         * swamp them; their percentiles are of per-batch mean latency, which hides the
+         * tail, and are labelled "batch-mean". Slower ops are timed one at a time ("per-op").
+         */
+        static void run(String name, int size, int ops, IntConsumer op) {
+            int warmup = Math.min(ops, 50_000), half = warmup / 2;
+            for (int i = 0; i < half; i++) op.accept(i);
+            long warmupStart = System.nanoTime();
+            for (int i = half; i < warmup; i++) op.accept(i);
+            long estimate = Math.max(1, (System.nanoTime() - warmupStart) / Math.max(1, warmup - half));
+            int batch = (int) Math.max(1, Math.min(Math.max(1, ops / 100), 10_000 / estimate));
+            int batches = (ops + batch - 1) / batch;
+            double[] latencies = new double[batches];
+            long allocated = THREADS.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            for (int b = 0, i = 0; b < batches; b++) {
+                int end = Math.min(ops, i + batch), count = end - i;
+                long t = System.nanoTime();
+                for (; i < end; i++) op.accept(i);
+                latencies[b] = (double) (System.nanoTime() - t) / count;
+            }
+            long elapsed = System.nanoTime() - start;
+            allocated = THREADS.getCurrentThreadAllocatedBytes() - allocated;
+            Arrays.sort(latencies);
+            report.printf("%-26s size=%-9d %13.0f ops/s  %-10s p50=%8.0fns  p99=%9.0fns  p99.9=%10.0fns  %9.1f B/op%n",
+                    name, size, ops * 1e9 / elapsed, batch > 1 ? "batch-mean" : "per-op", latencies[batches / 2],
+                    latencies[(int) (batches * 0.99)], latencies[(int) (batches * 0.999)], (double) allocated / ops);
+        }
+
+        // Operation count for an O(size) operation, so each benchmark runs in about a second
+        static int opsFor(int size) {
+            return (int) Math.max(200, Math.min(200_000, 200_000_000L / size));
+        }
+
+        // Comma-separated sizes from args[at], or the defaults
+        static int[] sizes(String[] args, int at) {
+            if (args.length <= at) return new int[] { 1_000, 100_000, 1_000_000 };
+            return Arrays.stream(args[at].split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+        }
+    }
+
     // Create sample questions
     private static List<QuizQuestion> createQuestions() {
         List<QuizQuestion> list = new ArrayList<>();
@@ -1,6 +1,38 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Optional;
+import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntConsumer;
+import java.util.zip.CRC32;
 
 public class StudentManagementSystem {
 
@@ -29,10 +61,1260 @@ public class StudentManagementSystem {
         }
     }
 
-    private static final ArrayList<Student> students = new ArrayList<>();
+    /*
+     * Open-addressing hash index from student ID to position in the student store.
+     * Keys and values live in parallel int arrays (no Integer boxing); collisions use
+     * linear probing and deletion uses backward shifting, so there are no tombstones.
+     */
+    static final class IdIndex {
+        private static final int EMPTY = Integer.MIN_VALUE; // not a valid student ID
+        private int[] keys;
+        private int[] values;
+        private int size;
+        private int mask;
+
+        IdIndex() { allocate(16); }
+
+        // Every int except the empty-slot marker can be indexed
+        static boolean isValidId(int id) {
+            return id != EMPTY;
+        }
+
+        int size() { return size; }
+
+        // Position for the ID, or -1 when absent
+        int get(int id) {
+            if (id == EMPTY) return -1;
+            int[] k = keys;
+            int m = k.length - 1;
+            // Bounded probe, so an optimistic reader racing a resize cannot spin forever
+            for (int slot = mix(id) & m, probes = 0; probes <= m; slot = (slot + 1) & m, probes++) {
+                if (k[slot] == id) return values[slot];
+                if (k[slot] == EMPTY) return -1;
+            }
+            return -1;
+        }
+
+        void put(int id, int position) {
+            if (id == EMPTY) throw new IllegalArgumentException("Unsupported student ID: " + id);
+            if ((size + 1) * 4 > keys.length * 3) resize(keys.length * 2);
+            int slot = mix(id) & mask;
+            while (keys[slot] != EMPTY && keys[slot] != id) slot = (slot + 1) & mask;
+            if (keys[slot] == EMPTY) size++;
+            keys[slot] = id;
+            values[slot] = position;
+        }
+
+        boolean remove(int id) {
+            if (id == EMPTY) return false;
+            int slot = mix(id) & mask;
+            while (keys[slot] != id) {
+                if (keys[slot] == EMPTY) return false;
+                slot = (slot + 1) & mask;
+            }
+            // Shift later entries of the probe run back into the hole
+            int hole = slot;
+            for (int next = (hole + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+                int home = mix(keys[next]) & mask;
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    keys[hole] = keys[next];
+                    values[hole] = values[next];
+                    hole = next;
+                }
+            }
+            keys[hole] = EMPTY;
+            size--;
+            return true;
+        }
+
+        void clear() {
+            allocate(16);
+        }
+
+        // Grows the table so n entries fit without further resizing
+        void ensureCapacity(int n) {
+            int capacity = keys.length;
+            while (n * 4 > capacity * 3) capacity *= 2;
+            if (capacity != keys.length) resize(capacity);
+        }
+
+        private void resize(int capacity) {
+            int[] oldKeys = keys, oldValues = values;
+            allocate(capacity);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) put(oldKeys[i], oldValues[i]);
+            }
+        }
+
+        private void allocate(int capacity) {
+            int[] k = new int[capacity];
+            Arrays.fill(k, EMPTY);
+            values = new int[capacity];
+            keys = k;
+            mask = capacity - 1;
+            size = 0;
+        }
+
+        // Spreads sequential IDs across the table
+        private static int mix(int id) {
+            int h = id * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /*
+     * Order-statistic treap over (marks descending, ID ascending), i.e. leaderboard
+     * order. Each node carries its subtree size, so insert, remove, rank and
+     * select are all O(log n) expected, and ranges are walked in order.
+     */
+    static final class RankIndex {
+        private static final class Node {
+            final double marks;
+            final int id;
+            final int priority;
+            int size = 1;
+            Node left, right;
+
+            Node(double marks, int id, int priority) {
+                this.marks = marks;
+                this.id = id;
+                this.priority = priority;
+            }
+        }
+
+        private Node root;
+        private final java.util.Random random = new java.util.Random();
+
+        int size() { return size(root); }
+
+        void clear() { root = null; }
+
+        /*
+         * Replaces the index with entries already in leaderboard order, in O(n).
+         * The tree is perfectly balanced and each level draws its priorities from
+         * its own band, highest at the root, so the treap invariant holds and later
+         * random inserts still settle at a proportional depth.
+         */
+        void buildSorted(double[] marks, int[] ids, int n) {
+            int levels = 33 - Integer.numberOfLeadingZeros(n);
+            long band = (1L << 32) / levels;
+            root = build(marks, ids, 0, n, 0, band);
+        }
+
+        private Node build(double[] marks, int[] ids, int lo, int hi, int depth, long band) {
+            if (lo >= hi) return null;
+            int mid = (lo + hi) >>> 1;
+            long top = Integer.MAX_VALUE - depth * band;
+            Node n = new Node(marks[mid], ids[mid], (int) (top - (long) (random.nextDouble() * band)));
+            n.left = build(marks, ids, lo, mid, depth + 1, band);
+            n.right = build(marks, ids, mid + 1, hi, depth + 1, band);
+            update(n);
+            return n;
+        }
+
+        // Calls action with each ID in leaderboard order
+        void forEachInOrder(IntConsumer action) {
+            ArrayDeque<Node> stack = new ArrayDeque<>();
+            Node n = root;
+            while (n != null || !stack.isEmpty()) {
+                while (n != null) {
+                    stack.push(n);
+                    n = n.left;
+                }
+                n = stack.pop();
+                action.accept(n.id);
+                n = n.right;
+            }
+        }
+
+        // True when the entries are already in leaderboard order
+        static boolean isSorted(double[] marks, int[] ids, int n) {
+            for (int i = 1; i < n; i++) {
+                int c = Double.compare(marks[i - 1], marks[i]);
+                if (c < 0 || (c == 0 && ids[i - 1] >= ids[i])) return false;
+            }
+            return true;
+        }
+
+        void insert(double marks, int id) {
+            root = insert(root, new Node(marks, id, random.nextInt()));
+        }
+
+        void remove(double marks, int id) {
+            root = remove(root, marks, id);
+        }
+
+        // 1-based leaderboard position of the entry (ties on marks ordered by ID)
+        int position(double marks, int id) {
+            int before = 0;
+            for (Node n = root; n != null; ) {
+                int c = compare(marks, id, n);
+                if (c == 0) return before + size(n.left) + 1;
+                if (c < 0) n = n.left;
+                else {
+                    before += size(n.left) + 1;
+                    n = n.right;
+                }
+            }
+            return -1;
+        }
+
+        // Number of entries with marks strictly above the given value (in Double.compare order, like the tree)
+        int countAbove(double marks) {
+            int count = 0;
+            for (Node n = root; n != null; ) {
+                if (Double.compare(n.marks, marks) > 0) {
+                    count += size(n.left) + 1;
+                    n = n.right;
+                } else {
+                    n = n.left;
+                }
+            }
+            return count;
+        }
+
+        // Number of entries with marks at or above the given value (in Double.compare order)
+        int countAtLeast(double marks) {
+            int count = 0;
+            for (Node n = root; n != null; ) {
+                if (Double.compare(n.marks, marks) >= 0) {
+                    count += size(n.left) + 1;
+                    n = n.right;
+                } else {
+                    n = n.left;
+                }
+            }
+            return count;
+        }
+
+        // IDs at leaderboard positions [from, from + count), 0-based
+        int[] idsInRange(int from, int count) {
+            int end = Math.min(size(), from + Math.max(0, count));
+            if (from >= end) return new int[0];
+            int[] out = new int[end - from];
+            collect(root, from, end, 0, out);
+            return out;
+        }
+
+        // IDs of students with min <= marks <= max, highest first, paged
+        int[] idsWithMarksBetween(double min, double max, int offset, int limit) {
+            int first = countAbove(max);
+            int last = countAtLeast(min); // exclusive
+            int from = first + Math.max(0, offset);
+            return idsInRange(from, Math.min(limit, last - from));
+        }
+
+        // In-order walk restricted to positions [from, end); base is the position of the subtree's first node
+        private static void collect(Node n, int from, int end, int base, int[] out) {
+            if (n == null || base >= end || base + n.size <= from) return;
+            int self = base + size(n.left);
+            collect(n.left, from, end, base, out);
+            if (self >= from && self < end) out[self - from] = n.id;
+            collect(n.right, from, end, self + 1, out);
+        }
+
+        private static Node insert(Node n, Node node) {
+            if (n == null) return node;
+            if (compare(node.marks, node.id, n) < 0) {
+                n.left = insert(n.left, node);
+                if (n.left.priority > n.priority) n = rotateRight(n);
+            } else {
+                n.right = insert(n.right, node);
+                if (n.right.priority > n.priority) n = rotateLeft(n);
+            }
+            update(n);
+            return n;
+        }
+
+        private static Node remove(Node n, double marks, int id) {
+            if (n == null) return null;
+            int c = compare(marks, id, n);
+            if (c < 0) n.left = remove(n.left, marks, id);
+            else if (c > 0) n.right = remove(n.right, marks, id);
+            else return merge(n.left, n.right);
+            update(n);
+            return n;
+        }
+
+        private static Node merge(Node a, Node b) {
+            if (a == null) return b;
+            if (b == null) return a;
+            if (a.priority > b.priority) {
+                a.right = merge(a.right, b);
+                update(a);
+                return a;
+            }
+            b.left = merge(a, b.left);
+            update(b);
+            return b;
+        }
+
+        private static Node rotateRight(Node n) {
+            Node l = n.left;
+            n.left = l.right;
+            l.right = n;
+            update(n);
+            update(l);
+            return l;
+        }
+
+        private static Node rotateLeft(Node n) {
+            Node r = n.right;
+            n.right = r.left;
+            r.left = n;
+            update(n);
+            update(r);
+            return r;
+        }
+
+        private static void update(Node n) {
+            n.size = size(n.left) + size(n.right) + 1;
+        }
+
+        private static int size(Node n) {
+            return n == null ? 0 : n.size;
+        }
+
+        // Leaderboard order: higher marks first, then lower ID
+        private static int compare(double marks, int id, Node n) {
+            int c = Double.compare(n.marks, marks);
+            return c != 0 ? c : Integer.compare(id, n.id);
+        }
+    }
+
+    /*
+     * Columnar student storage: parallel primitive arrays for IDs and marks, and
+     * dictionary-encoded names. Aggregates over marks scan one contiguous double[]
+     * instead of chasing Student objects; a Student is only created for display.
+     */
+    static final class StudentStore {
+        private int[] ids = new int[16];
+        private double[] marks = new double[16];
+        private int[] nameCodes = new int[16];
+        private int size;
+        private final IdIndex index = new IdIndex();
+        private final RankIndex ranking = new RankIndex();
+        // Name dictionary; codes of names no student uses any more are reclaimed
+        // once they make up half of it, and snapshots store only the live names
+        private final ArrayList<String> names = new ArrayList<>();
+        private final HashMap<String, Integer> nameCodeOf = new HashMap<>();
+
+        int size() { return size; }
+        boolean isEmpty() { return size == 0; }
+
+        // Position of the student, or -1
+        int positionOf(int id) { return index.get(id); }
+
+        int idAt(int position) { return ids[position]; }
+        double marksAt(int position) { return marks[position]; }
+        String nameAt(int position) { return names.get(nameCodes[position]); }
+
+        Student get(int position) {
+            return new Student(ids[position], nameAt(position), marks[position]);
+        }
+
+        // Appends a student and returns its position
+        int add(int id, String name, double studentMarks) {
+            if (index.get(id) >= 0) throw new IllegalArgumentException("Duplicate student ID: " + id);
+            if (size == ids.length) {
+                int capacity = size * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                marks = Arrays.copyOf(marks, capacity);
+                nameCodes = Arrays.copyOf(nameCodes, capacity);
+            }
+            ids[size] = id;
+            marks[size] = studentMarks;
+            nameCodes[size] = encode(name);
+            index.put(id, size);
+            ranking.insert(studentMarks, id);
+            return size++;
+        }
+
+        // Adds or replaces the student with this ID
+        void put(int id, String name, double studentMarks) {
+            int position = index.get(id);
+            if (position < 0) {
+                add(id, name, studentMarks);
+            } else {
+                setName(position, name);
+                setMarks(position, studentMarks);
+            }
+        }
+
+        // Replaces the whole store with the given columns (used by snapshot recovery)
+        void load(int[] loadedIds, double[] loadedMarks, int[] loadedNameCodes, List<String> dictionary) {
+            clear();
+            for (String name : dictionary) {
+                nameCodeOf.put(name, names.size());
+                names.add(name);
+            }
+            int capacity = Math.max(16, loadedIds.length);
+            ids = Arrays.copyOf(loadedIds, capacity);
+            marks = Arrays.copyOf(loadedMarks, capacity);
+            nameCodes = Arrays.copyOf(loadedNameCodes, capacity);
+            size = loadedIds.length;
+            index.ensureCapacity(size);
+            for (int i = 0; i < size; i++) {
+                if (index.get(ids[i]) >= 0) throw new IllegalStateException("Duplicate student ID: " + ids[i]);
+                index.put(ids[i], i);
+            }
+            if (RankIndex.isSorted(marks, ids, size)) {
+                ranking.buildSorted(marks, ids, size);
+            } else {
+                for (int i = 0; i < size; i++) ranking.insert(marks[i], ids[i]);
+            }
+        }
+
+        void setName(int position, String name) { nameCodes[position] = encode(name); }
+
+        void setMarks(int position, double studentMarks) {
+            ranking.remove(marks[position], ids[position]);
+            marks[position] = studentMarks;
+            ranking.insert(studentMarks, ids[position]);
+        }
+
+        RankIndex ranking() { return ranking; }
+
+        // Swap-remove: the last student takes the freed position, so nothing is shifted
+        Student removeAt(int position) {
+            Student removed = get(position);
+            int last = --size;
+            if (position != last) {
+                ids[position] = ids[last];
+                marks[position] = marks[last];
+                nameCodes[position] = nameCodes[last];
+                index.put(ids[position], position);
+            }
+            index.remove(removed.getId());
+            ranking.remove(removed.getMarks(), removed.getId());
+            return removed;
+        }
+
+        void clear() {
+            size = 0;
+            index.clear();
+            ranking.clear();
+            names.clear();
+            nameCodeOf.clear();
+        }
+
+        private int encode(String name) {
+            Integer code = nameCodeOf.get(name);
+            if (code == null) {
+                if (names.size() >= 1024 && names.size() >= 2 * size) compactNames();
+                code = names.size();
+                names.add(name);
+                nameCodeOf.put(name, code);
+            }
+            return code;
+        }
+
+        // Renumbers the names in use from 0 and drops the rest
+        private void compactNames() {
+            int[] remap = liveNameCodes();
+            ArrayList<String> live = new ArrayList<>();
+            for (int code = 0; code < remap.length; code++) {
+                if (remap[code] >= 0) live.add(names.get(code));
+            }
+            for (int i = 0; i < size; i++) nameCodes[i] = remap[nameCodes[i]];
+            names.clear();
+            nameCodeOf.clear();
+            for (String name : live) {
+                nameCodeOf.put(name, names.size());
+                names.add(name);
+            }
+        }
+
+        // New code of each dictionary code, numbered in order of first use; -1 if unused
+        int[] liveNameCodes() {
+            int[] remap = new int[names.size()];
+            Arrays.fill(remap, -1);
+            int next = 0;
+            for (int i = 0; i < size; i++) {
+                if (remap[nameCodes[i]] < 0) remap[nameCodes[i]] = next++;
+            }
+            return remap;
+        }
+    }
+
+    /*
+     * Analytics over the marks column. Mean, percentile and histogram are single
+     * passes over the primitive arrays (percentile selects over a copy of the
+     * column; sums are split across the common fork/join pool for large stores).
+     * Ranking queries go through the store's incrementally maintained RankIndex.
+     */
+    static final class MarksAnalytics {
+        private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+        private MarksAnalytics() { }
+
+        static double mean(StudentStore store) {
+            int n = store.size();
+            if (n == 0) return Double.NaN;
+            double[] column = store.marks;
+            double sum = n >= PARALLEL_THRESHOLD
+                    ? Arrays.stream(column, 0, n).parallel().sum()
+                    : sum(column, 0, n);
+            return sum / n;
+        }
+
+        private static double sum(double[] column, int from, int to) {
+            double s = 0;
+            for (int i = from; i < to; i++) s += column[i];
+            return s;
+        }
+
+        // Nearest-rank percentile, p in [0, 100]
+        static double percentile(StudentStore store, double p) {
+            int n = store.size();
+            if (n == 0) return Double.NaN;
+            if (p < 0 || p > 100) throw new IllegalArgumentException("Percentile must be between 0 and 100");
+            double[] copy = Arrays.copyOf(store.marks, n);
+            int k = Math.max(0, (int) Math.ceil(p / 100 * n) - 1);
+            return select(copy, k);
+        }
+
+        // Counts per equal-width bin over [min, max); values outside go to the end bins
+        static int[] histogram(StudentStore store, double min, double max, int bins) {
+            int[] counts = new int[bins];
+            double width = (max - min) / bins;
+            double[] column = store.marks;
+            for (int i = 0, n = store.size(); i < n; i++) {
+                int b = (int) ((column[i] - min) / width);
+                counts[b < 0 ? 0 : b >= bins ? bins - 1 : b]++;
+            }
+            return counts;
+        }
+
+        // Positions of the k highest marks, best first (ties broken by lower ID); O(k log n)
+        static int[] topK(StudentStore store, int k) {
+            int[] ids = store.ranking().idsInRange(0, k);
+            for (int i = 0; i < ids.length; i++) ids[i] = store.positionOf(ids[i]);
+            return ids;
+        }
+
+        // 1-based rank by marks (1 = highest; equal marks share a rank), or -1 if unknown; O(log n)
+        static int rankOf(StudentStore store, int id) {
+            int position = store.positionOf(id);
+            if (position < 0) return -1;
+            return store.ranking().countAbove(store.marks[position]) + 1;
+        }
+
+        // Positions of students with min <= marks <= max, highest first, paged
+        static int[] between(StudentStore store, double min, double max, int offset, int limit) {
+            int[] ids = store.ranking().idsWithMarksBetween(min, max, offset, limit);
+            for (int i = 0; i < ids.length; i++) ids[i] = store.positionOf(ids[i]);
+            return ids;
+        }
+
+        // Quickselect: the k-th smallest value (0-based); reorders the array
+        private static double select(double[] a, int k) {
+            int lo = 0, hi = a.length - 1;
+            while (lo < hi) {
+                double pivot = a[(lo + hi) >>> 1];
+                int i = lo, j = hi;
+                while (i <= j) {
+                    while (a[i] < pivot) i++;
+                    while (a[j] > pivot) j--;
+                    if (i <= j) {
+                        double t = a[i];
+                        a[i++] = a[j];
+                        a[j--] = t;
+                    }
+                }
+                if (k <= j) hi = j;
+                else if (k >= i) lo = i;
+                else return a[k];
+            }
+            return a[k];
+        }
+    }
+
+    /*
+     * Durable storage for the student store: an append-only write-ahead log plus
+     * periodic snapshots, in the working directory.
+     *
+     * WAL record:  [int payloadLength][int crc32(payload)][payload]
+     *   payload:   [byte type][int id]                              DELETE
+     *              [byte type][int id][double marks][short n][n UTF-8 bytes]  PUT
+     * PUT carries the full record, so replaying any suffix of the log onto a state
+     * that already contains it is harmless; recovery is snapshot + whole log.
+     *
+     * Snapshot:    [int magic][int version][int count][int dictionarySize]
+     *              dictionary entries as [short n][n UTF-8 bytes]
+     *              int[count] ids, double[count] marks, int[count] nameCodes
+     * Columns are in leaderboard order. Snapshots are written to a temp file, forced
+     * and atomically renamed, then the log is truncated. They are loaded through a
+     * read-only memory mapping.
+     */
+    static final class StudentJournal implements AutoCloseable {
+        static final String WAL_FILE = "students.wal";
+        static final String SNAPSHOT_FILE = "students.snapshot";
+        private static final int SNAPSHOT_MAGIC = 0x53545353; // "STSS"
+        private static final int SNAPSHOT_VERSION = 1;
+        private static final byte PUT = 1, DELETE = 2;
+        private static final long SNAPSHOT_AFTER_BYTES = 64L << 20;
+
+        private final Path dir;
+        private final StudentStore store;
+        private final long snapshotAfterBytes;
+        private FileChannel wal;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+        private final CRC32 crc = new CRC32();
+        private long appendedSeq;   // last record handed to append
+        private volatile long logBytes; // size of the log including buffered records
+        private volatile long durableSeq; // last record known to be on disk
+        private final Object syncLock = new Object();
+
+        private StudentJournal(Path dir, StudentStore store, long snapshotAfterBytes) {
+            this.dir = dir;
+            this.store = store;
+            this.snapshotAfterBytes = snapshotAfterBytes;
+        }
+
+        // Recovers the store from disk, then opens the log for appending
+        static StudentJournal open(Path dir, StudentStore store) throws IOException {
+            return open(dir, store, SNAPSHOT_AFTER_BYTES);
+        }
+
+        static StudentJournal open(Path dir, StudentStore store, long snapshotAfterBytes) throws IOException {
+            StudentJournal journal = new StudentJournal(dir, store, snapshotAfterBytes);
+            Path snapshot = dir.resolve(SNAPSHOT_FILE);
+            if (Files.exists(snapshot)) loadSnapshot(snapshot, store);
+            Path walPath = dir.resolve(WAL_FILE);
+            journal.wal = FileChannel.open(walPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            long validEnd = replay(journal.wal, store);
+            // Drop a torn or corrupt tail so new records follow the last good one
+            journal.wal.truncate(validEnd);
+            journal.wal.position(validEnd);
+            journal.logBytes = validEnd;
+            return journal;
+        }
+
+        // Log an add or update; returns the sequence number to pass to sync
+        synchronized long logPut(int id, String name, double marks) throws IOException {
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            if (nameBytes.length > Short.MAX_VALUE) throw new IllegalArgumentException("Name too long");
+            int payload = 1 + 4 + 8 + 2 + nameBytes.length;
+            reserve(8 + payload);
+            int start = buffer.position();
+            buffer.position(start + 8);
+            buffer.put(PUT).putInt(id).putDouble(marks).putShort((short) nameBytes.length).put(nameBytes);
+            return finishRecord(start, payload);
+        }
+
+        synchronized long logDelete(int id) throws IOException {
+            int payload = 1 + 4;
+            reserve(8 + payload);
+            int start = buffer.position();
+            buffer.position(start + 8);
+            buffer.put(DELETE).putInt(id);
+            return finishRecord(start, payload);
+        }
+
+        private long finishRecord(int start, int payload) {
+            crc.reset();
+            ByteBuffer body = buffer.duplicate();
+            body.position(start + 8).limit(start + 8 + payload);
+            crc.update(body);
+            buffer.putInt(start, payload).putInt(start + 4, (int) crc.getValue());
+            logBytes += 8 + payload;
+            return ++appendedSeq;
+        }
+
+        private void reserve(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) writeBuffer();
+        }
+
+        private void writeBuffer() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) wal.write(buffer);
+            buffer.clear();
+        }
+
+        /*
+         * Group commit: makes every record up to seq durable. Threads arriving while
+         * another thread is forcing wait for it, then usually find their record
+         * already covered and return without an fsync of their own.
+         */
+        void sync(long seq) throws IOException {
+            if (durableSeq >= seq) return;
+            synchronized (syncLock) {
+                if (durableSeq >= seq) return;
+                long upTo;
+                synchronized (this) {
+                    writeBuffer();
+                    upTo = appendedSeq;
+                }
+                wal.force(false);
+                durableSeq = upTo;
+            }
+        }
+
+        /*
+         * Snapshot once the log has grown past the threshold. The snapshot replaces
+         * the whole log, so every logged change must already be applied to the store.
+         */
+        synchronized void maybeSnapshot() throws IOException {
+            if (snapshotDue()) snapshot();
+        }
+
+        // Lock-free pre-check, so writers skip maybeSnapshot's locking on most calls
+        boolean snapshotDue() {
+            return logBytes >= snapshotAfterBytes;
+        }
+
+        synchronized void snapshot() throws IOException {
+            Path tmp = dir.resolve(SNAPSHOT_FILE + ".tmp");
+            writeSnapshot(tmp, store);
+            Files.move(tmp, dir.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            // Everything logged so far is in the snapshot
+            buffer.clear();
+            wal.truncate(0);
+            wal.position(0);
+            wal.force(true);
+            logBytes = 0;
+            durableSeq = appendedSeq;
+        }
+
+        @Override
+        public void close() throws IOException {
+            sync(appendedSeq);
+            wal.close();
+        }
+
+        private static void writeSnapshot(Path file, StudentStore store) throws IOException {
+            try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20);
+                // Only names still in use are written, renumbered; runs under a read lock, so the store is not touched
+                int[] remap = store.liveNameCodes();
+                int liveNames = 0;
+                for (int code : remap) if (code >= 0) liveNames++;
+                buf.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putInt(store.size).putInt(liveNames);
+                String[] dictionary = new String[liveNames];
+                for (int code = 0; code < remap.length; code++) {
+                    if (remap[code] >= 0) dictionary[remap[code]] = store.names.get(code);
+                }
+                for (String name : dictionary) {
+                    byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                    if (buf.remaining() < 2 + bytes.length) drain(out, buf);
+                    buf.putShort((short) bytes.length).put(bytes);
+                }
+                // Columns are written in leaderboard order so loading can rebuild the rank index in O(n)
+                int[] order = new int[store.size];
+                int[] next = { 0 };
+                store.ranking.forEachInOrder(id -> order[next[0]++] = store.index.get(id));
+                for (int position : order) {
+                    if (buf.remaining() < 4) drain(out, buf);
+                    buf.putInt(store.ids[position]);
+                }
+                for (int position : order) {
+                    if (buf.remaining() < 8) drain(out, buf);
+                    buf.putDouble(store.marks[position]);
+                }
+                for (int position : order) {
+                    if (buf.remaining() < 4) drain(out, buf);
+                    buf.putInt(remap[store.nameCodes[position]]);
+                }
+                drain(out, buf);
+                out.force(true);
+            }
+        }
+
+        private static void drain(FileChannel out, ByteBuffer buf) throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) out.write(buf);
+            buf.clear();
+        }
+
+        private static void loadSnapshot(Path file, StudentStore store) throws IOException {
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+                MappedByteBuffer map = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+                if (map.getInt() != SNAPSHOT_MAGIC || map.getInt() != SNAPSHOT_VERSION) {
+                    throw new IOException("Not a student snapshot: " + file);
+                }
+                int count = map.getInt();
+                int dictionarySize = map.getInt();
+                ArrayList<String> names = new ArrayList<>(dictionarySize);
+                for (int i = 0; i < dictionarySize; i++) {
+                    byte[] bytes = new byte[map.getShort()];
+                    map.get(bytes);
+                    names.add(new String(bytes, StandardCharsets.UTF_8));
+                }
+                int[] ids = new int[count];
+                double[] marks = new double[count];
+                int[] nameCodes = new int[count];
+                // Bulk copies straight out of the mapping
+                map.asIntBuffer().get(ids);
+                map.position(map.position() + count * 4);
+                map.asDoubleBuffer().get(marks);
+                map.position(map.position() + count * 8);
+                map.asIntBuffer().get(nameCodes);
+                store.load(ids, marks, nameCodes, names);
+            }
+        }
+
+        // Applies valid records in order and returns the offset after the last one
+        private static long replay(FileChannel wal, StudentStore store) throws IOException {
+            long size = wal.size();
+            if (size == 0) return 0;
+            MappedByteBuffer map = wal.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            CRC32 crc = new CRC32();
+            while (map.remaining() >= 8) {
+                int start = map.position();
+                int length = map.getInt();
+                int checksum = map.getInt();
+                if (length < 5 || length > map.remaining()) return start;
+                ByteBuffer payload = map.slice();
+                payload.limit(length);
+                crc.reset();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != checksum) return start;
+                byte type = payload.get();
+                int id = payload.getInt();
+                if (type == PUT) {
+                    double marks = payload.getDouble();
+                    byte[] name = new byte[payload.getShort()];
+                    payload.get(name);
+                    store.put(id, new String(name, StandardCharsets.UTF_8), marks);
+                } else if (type == DELETE) {
+                    int position = store.positionOf(id);
+                    if (position >= 0) store.removeAt(position);
+                } else {
+                    return start;
+                }
+                map.position(start + 8 + length);
+            }
+            return map.position();
+        }
+    }
+
+    /*
+     * Bulk import and export of student records.
+     *
+     * CSV rows are "id,name,marks" (an optional header row is skipped; the name may
+     * contain commas and may be double-quoted). Binary files are
+     * [int magic] then records [int id][double marks][short n][n UTF-8 bytes].
+     *
+     * CSV import is a bounded pipeline: the calling thread reads chunks of lines,
+     * parsing and validation run on the common fork/join pool, and finished chunks
+     * are taken back in input order for dedupe against the ID index and insertion.
+     * At most a fixed window of chunks is in flight, so memory stays constant.
+     * Rejected rows are written to a reject file with the reason instead of
+     * stopping the load.
+     */
+    static final class BulkTransfer {
+        private static final int BINARY_MAGIC = 0x53544258; // "STBX"
+        private static final int CHUNK_LINES = 16_384;
+        private static final int BUFFER_SIZE = 1 << 16;
+
+        private BulkTransfer() { }
+
+        static final class Result {
+            long imported;
+            long rejected;
+
+            @Override
+            public String toString() {
+                return imported + " imported, " + rejected + " rejected";
+            }
+        }
+
+        // Parsed chunk: valid rows in columns, invalid rows as ready-to-write reject lines
+        private static final class Chunk {
+            final int[] ids;
+            final String[] names;
+            final double[] marks;
+            final long[] lineNumbers;
+            int count;
+            final StringBuilder rejects = new StringBuilder();
+            long rejectCount;
+
+            Chunk(int capacity) {
+                ids = new int[capacity];
+                names = new String[capacity];
+                marks = new double[capacity];
+                lineNumbers = new long[capacity];
+            }
+        }
+
+        static Result importCsv(Path file, Path rejectFile, StudentStore store, StudentJournal journal)
+                throws IOException {
+            Result result = new Result();
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+            int window = Math.max(2, pool.getParallelism() * 2);
+            ArrayDeque<ForkJoinTask<Chunk>> inFlight = new ArrayDeque<>();
+            long seq = 0;
+            try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+                 BufferedWriter rejects = Files.newBufferedWriter(rejectFile, StandardCharsets.UTF_8)) {
+                long lineNumber = 0;
+                String line = in.readLine();
+                if (line != null && line.regionMatches(true, 0, "id,", 0, 3)) {
+                    lineNumber++;
+                    line = in.readLine(); // header
+                }
+                while (line != null) {
+                    String[] lines = new String[CHUNK_LINES];
+                    int n = 0;
+                    long firstLine = lineNumber + 1;
+                    while (line != null && n < CHUNK_LINES) {
+                        lines[n++] = line;
+                        lineNumber++;
+                        line = in.readLine();
+                    }
+                    int count = n;
+                    inFlight.add(pool.submit(() -> parseChunk(lines, count, firstLine)));
+                    if (inFlight.size() >= window) seq = insertChunk(join(inFlight.poll()), store, journal, rejects, result, seq);
+                }
+                while (!inFlight.isEmpty()) seq = insertChunk(join(inFlight.poll()), store, journal, rejects, result, seq);
+            }
+            finishImport(journal, seq);
+            return result;
+        }
+
+        private static Chunk parseChunk(String[] lines, int count, long firstLine) {
+            Chunk chunk = new Chunk(count);
+            for (int i = 0; i < count; i++) {
+                String line = lines[i];
+                long lineNumber = firstLine + i;
+                if (line.isBlank()) continue;
+                String error = parseRow(line, chunk);
+                if (error == null) {
+                    chunk.lineNumbers[chunk.count++] = lineNumber;
+                } else {
+                    chunk.rejects.append(lineNumber).append(": ").append(error).append(": ").append(line).append('\n');
+                    chunk.rejectCount++;
+                }
+            }
+            return chunk;
+        }
+
+        // Parses into the next free row of the chunk; returns an error message or null
+        private static String parseRow(String line, Chunk chunk) {
+            int first = line.indexOf(',');
+            int last = line.lastIndexOf(',');
+            if (first < 0 || first == last) return "expected id,name,marks";
+            int id;
+            double marks;
+            try {
+                id = Integer.parseInt(line.substring(0, first).trim());
+            } catch (NumberFormatException e) {
+                return "invalid id";
+            }
+            try {
+                marks = Double.parseDouble(line.substring(last + 1).trim());
+            } catch (NumberFormatException e) {
+                return "invalid marks";
+            }
+            String name = line.substring(first + 1, last).trim();
+            if (name.length() >= 2 && name.charAt(0) == '"' && name.charAt(name.length() - 1) == '"') {
+                name = name.substring(1, name.length() - 1).replace("\"\"", "\"").trim();
+            }
+            String error = validate(id, name, marks);
+            if (error != null) return error;
+            chunk.ids[chunk.count] = id;
+            chunk.names[chunk.count] = name;
+            chunk.marks[chunk.count] = marks;
+            return null;
+        }
+
+        private static String validate(int id, String name, double marks) {
+            if (!IdIndex.isValidId(id)) return "invalid id";
+            if (name.isEmpty()) return "empty name";
+            if (name.length() > MAX_NAME_LENGTH) return "name too long";
+            if (!Double.isFinite(marks)) return "invalid marks";
+            return null;
+        }
+
+        // Dedupe and insert one chunk in input order; returns the last journal sequence number
+        private static long insertChunk(Chunk chunk, StudentStore store, StudentJournal journal,
+                                        BufferedWriter rejects, Result result, long seq) throws IOException {
+            rejects.append(chunk.rejects);
+            result.rejected += chunk.rejectCount;
+            for (int i = 0; i < chunk.count; i++) {
+                int id = chunk.ids[i];
+                if (store.positionOf(id) >= 0) {
+                    rejects.append(String.valueOf(chunk.lineNumbers[i])).append(": duplicate id: ").append(String.valueOf(id))
+                            .append(',').append(chunk.names[i]).append(',').append(String.valueOf(chunk.marks[i])).append('\n');
+                    result.rejected++;
+                    continue;
+                }
+                if (journal != null) seq = journal.logPut(id, chunk.names[i], chunk.marks[i]);
+                store.add(id, chunk.names[i], chunk.marks[i]);
+                result.imported++;
+            }
+            return seq;
+        }
+
+        // One fsync for the whole import
+        private static void finishImport(StudentJournal journal, long seq) throws IOException {
+            if (journal == null) return;
+            journal.sync(seq);
+            journal.maybeSnapshot();
+        }
+
+        private static Chunk join(ForkJoinTask<Chunk> task) throws IOException {
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while importing", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Import failed", e.getCause());
+            }
+        }
+
+        static long exportCsv(Path file, StudentStore store) throws IOException {
+            try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                out.write("id,name,marks\n");
+                StringBuilder row = new StringBuilder(64);
+                for (int i = 0; i < store.size(); i++) {
+                    String name = store.nameAt(i);
+                    row.setLength(0);
+                    row.append(store.idAt(i)).append(',');
+                    if (name.indexOf(',') >= 0 || name.indexOf('"') >= 0) {
+                        row.append('"').append(name.replace("\"", "\"\"")).append('"');
+                    } else {
+                        row.append(name);
+                    }
+                    row.append(',').append(store.marksAt(i)).append('\n');
+                    out.append(row);
+                }
+                return store.size();
+            }
+        }
+
+        static long exportBinary(Path file, StudentStore store) throws IOException {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE))) {
+                out.writeInt(BINARY_MAGIC);
+                for (int i = 0; i < store.size(); i++) {
+                    byte[] name = store.nameAt(i).getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(store.idAt(i));
+                    out.writeDouble(store.marksAt(i));
+                    out.writeShort(name.length);
+                    out.write(name);
+                }
+                return store.size();
+            }
+        }
+
+        // Binary rows are fixed-layout, so they are decoded sequentially without a parse stage
+        static Result importBinary(Path file, Path rejectFile, StudentStore store, StudentJournal journal)
+                throws IOException {
+            Result result = new Result();
+            long seq = 0;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE));
+                 BufferedWriter rejects = Files.newBufferedWriter(rejectFile, StandardCharsets.UTF_8)) {
+                if (in.readInt() != BINARY_MAGIC) throw new IOException("Not a student export file: " + file);
+                for (long record = 1; ; record++) {
+                    int id;
+                    try {
+                        id = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    double marks = in.readDouble();
+                    byte[] bytes = new byte[in.readUnsignedShort()];
+                    in.readFully(bytes);
+                    String name = new String(bytes, StandardCharsets.UTF_8);
+                    String error = validate(id, name, marks);
+                    if (error == null && store.positionOf(id) >= 0) error = "duplicate id";
+                    if (error != null) {
+                        rejects.append("record ").append(String.valueOf(record)).append(": ").append(error).append(": ")
+                                .append(String.valueOf(id)).append(',').append(name).append(',').append(String.valueOf(marks)).append('\n');
+                        result.rejected++;
+                        continue;
+                    }
+                    if (journal != null) seq = journal.logPut(id, name, marks);
+                    store.add(id, name, marks);
+                    result.imported++;
+                }
+            }
+            finishImport(journal, seq);
+            return result;
+        }
+    }
+
+    /*
+     * Thread-safe service over a StudentStore (and optional journal), independent of
+     * the console menu. Point lookups use StampedLock optimistic reads, so they do
+     * not block behind writers or other readers; if a write overlaps the read, it
+     * is retried under the read lock. Scans and ranking queries take the read lock.
+     * Writes are logged and applied under the write lock. The journal sync happens
+     * after the lock is released, so concurrent writers share one group-commit fsync.
+     * A due snapshot is taken after that under the read lock, so it sees every
+     * logged change applied while optimistic lookups carry on.
+     */
+    static final class StudentService {
+        private final StudentStore store;
+        private final StudentJournal journal; // may be null
+        private final StampedLock lock = new StampedLock();
+
+        StudentService(StudentStore store, StudentJournal journal) {
+            this.store = store;
+            this.journal = journal;
+        }
+
+        /*
+         * Executor for request handlers, one thread per request: virtual threads when
+         * the runtime has them (JDK 21+), otherwise a cached pool of platform threads.
+         */
+        static ExecutorService newRequestExecutor() {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                return Executors.newCachedThreadPool();
+            }
+        }
+
+        Optional<Student> find(int id) {
+            long stamp = lock.tryOptimisticRead();
+            Student found = null;
+            try {
+                int position = store.positionOf(id);
+                if (position >= 0) found = store.get(position);
+            } catch (RuntimeException e) {
+                stamp = 0; // torn read during a concurrent write; validate(0) fails
+            }
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    int position = store.positionOf(id);
+                    found = position >= 0 ? store.get(position) : null;
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            return Optional.ofNullable(found);
+        }
+
+        int size() {
+            long stamp = lock.tryOptimisticRead();
+            int size = store.size();
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    size = store.size();
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            return size;
+        }
+
+        int rankOf(int id) {
+            long stamp = lock.readLock();
+            try {
+                return MarksAnalytics.rankOf(store, id);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        List<Student> top(int k) {
+            long stamp = lock.readLock();
+            try {
+                int[] positions = MarksAnalytics.topK(store, k);
+                List<Student> result = new ArrayList<>(positions.length);
+                for (int position : positions) result.add(store.get(position));
+                return result;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        double meanMarks() {
+            long stamp = lock.readLock();
+            try {
+                return MarksAnalytics.mean(store);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        // False if the ID is already taken
+        boolean add(int id, String name, double marks) throws IOException {
+            if (!IdIndex.isValidId(id)) throw new IllegalArgumentException("Unsupported student ID: " + id);
+            if (!Double.isFinite(marks)) throw new IllegalArgumentException("Invalid marks: " + marks);
+            long seq;
+            long stamp = lock.writeLock();
+            try {
+                if (store.positionOf(id) >= 0) return false;
+                seq = journal != null ? journal.logPut(id, name, marks) : 0;
+                store.add(id, name, marks);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+            sync(seq);
+            snapshotIfDue();
+            return true;
+        }
+
+        // False if there is no student with the ID
+        boolean update(int id, String name, double marks) throws IOException {
+            if (!Double.isFinite(marks)) throw new IllegalArgumentException("Invalid marks: " + marks);
+            long seq;
+            long stamp = lock.writeLock();
+            try {
+                int position = store.positionOf(id);
+                if (position < 0) return false;
+                seq = journal != null ? journal.logPut(id, name, marks) : 0;
+                store.setName(position, name);
+                if (store.marksAt(position) != marks) store.setMarks(position, marks);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+            sync(seq);
+            snapshotIfDue();
+            return true;
+        }
+
+        boolean delete(int id) throws IOException {
+            long seq;
+            long stamp = lock.writeLock();
+            try {
+                int position = store.positionOf(id);
+                if (position < 0) return false;
+                seq = journal != null ? journal.logDelete(id) : 0;
+                store.removeAt(position);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+            sync(seq);
+            snapshotIfDue();
+            return true;
+        }
+
+        private void sync(long seq) throws IOException {
+            if (journal != null) journal.sync(seq);
+        }
+
+        private void snapshotIfDue() throws IOException {
+            if (journal == null || !journal.snapshotDue()) return;
+            long stamp = lock.readLock();
+            try {
+                journal.maybeSnapshot();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    private static final StudentStore store = new StudentStore();
+    // Up to 30000 UTF-8 bytes, within the journal's 16-bit name length
+    static final int MAX_NAME_LENGTH = 10_000;
+    private static StudentJournal journal; // null when running without persistence
     private static final Scanner sc = new Scanner(System.in);
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--bench")) {
+            runBenchmarks(args);
+            return;
+        }
+        openJournal();
         int choice;
         do {
             showMenu();
@@ -43,15 +1325,73 @@ public class StudentManagementSystem {
                 case 3 -> updateStudent();
                 case 4 -> deleteStudent();
                 case 5 -> viewStudentById();
-                case 6 -> System.out.println("Exiting... Goodbye!");
+                case 6 -> marksReport();
+                case 7 -> leaderboard();
+                case 8 -> importExport();
+                case 9 -> System.out.println("Exiting... Goodbye!");
                 default -> System.out.println("Invalid choice. Try again.");
             }
             System.out.println();
-        } while (choice != 6);
+        } while (choice != 9);
 
+        closeJournal();
         sc.close();
     }
 
+    // Recover saved students from the working directory and keep logging changes there
+    private static void openJournal() {
+        try {
+            journal = StudentJournal.open(Paths.get("."), store);
+            if (!store.isEmpty()) System.out.println("Loaded " + store.size() + " student record(s).");
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Could not open saved records (" + e.getMessage() + "). Changes will not be saved.");
+            store.clear();
+            journal = null;
+        }
+    }
+
+    private static void closeJournal() {
+        if (journal == null) return;
+        try {
+            journal.close();
+        } catch (IOException e) {
+            System.out.println("Error saving records: " + e.getMessage());
+        }
+    }
+
+    // Write-ahead: the change is durable before it is applied and reported
+    private static boolean persistPut(int id, String name, double marks) {
+        if (journal == null) return true;
+        try {
+            journal.sync(journal.logPut(id, name, marks));
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Error saving record: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static boolean persistDelete(int id) {
+        if (journal == null) return true;
+        try {
+            journal.sync(journal.logDelete(id));
+            return true;
+        } catch (IOException e) {
+            System.out.println("Error saving record: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Only after the change is applied, since a snapshot truncates the log
+    private static void snapshotIfDue() {
+        if (journal == null) return;
+        try {
+            journal.maybeSnapshot();
+        } catch (IOException e) {
+            System.out.println("Error writing snapshot (the log is kept): " + e.getMessage());
+        }
+    }
+
     private static void showMenu() {
         System.out.println("=== STUDENT RECORD MANAGEMENT ===");
         System.out.println("1. Add Student");
@@ -59,90 +1399,371 @@ public class StudentManagementSystem {
         System.out.println("3. Update Student");
         System.out.println("4. Delete Student");
         System.out.println("5. View Student by ID");
-        System.out.println("6. Exit");
+        System.out.println("6. Marks Report");
+        System.out.println("7. Leaderboard");
+        System.out.println("8. Import / Export");
+        System.out.println("9. Exit");
     }
 
     private static void addStudent() {
         System.out.println("--- Add Student ---");
-        int id = readInt("Enter Student ID (integer): ");
-        if (findStudentIndexById(id).isPresent()) {
+        int id = readStudentId("Enter Student ID (integer): ");
+        if (findStudentIndexById(id) >= 0) {
             System.out.println("A student with this ID already exists. Use a unique ID.");
             return;
         }
-        String name = readNonEmptyString("Enter Name: ");
+        String name = readName("Enter Name: ");
         double marks = readDouble("Enter Marks: ");
-        students.add(new Student(id, name, marks));
+        if (!persistPut(id, name, marks)) return;
+        store.add(id, name, marks);
+        snapshotIfDue();
         System.out.println("Student added successfully.");
     }
 
     private static void viewAllStudents() {
         System.out.println("--- All Students ---");
-        if (students.isEmpty()) {
+        if (store.isEmpty()) {
             System.out.println("No student records found.");
             return;
         }
-        for (Student s : students) {
-            System.out.println(s);
+        for (int i = 0; i < store.size(); i++) {
+            System.out.println(store.get(i));
         }
     }
 
     private static void updateStudent() {
         System.out.println("--- Update Student ---");
-        int id = readInt("Enter Student ID to update: ");
-        Optional<Integer> idxOpt = findStudentIndexById(id);
-        if (idxOpt.isEmpty()) {
+        int id = readStudentId("Enter Student ID to update: ");
+        int idx = findStudentIndexById(id);
+        if (idx < 0) {
             System.out.println("Student with ID " + id + " not found.");
             return;
         }
-        Student s = students.get(idxOpt.get());
-        System.out.println("Current record: " + s);
+        System.out.println("Current record: " + store.get(idx));
 
         System.out.println("Enter new values (leave blank to keep current):");
         String newName = readLineAllowEmpty("New name: ");
-        if (!newName.isBlank()) s.setName(newName);
+        if (newName.length() > MAX_NAME_LENGTH) {
+            System.out.println("Name is too long. Name not updated.");
+            newName = "";
+        }
+        if (newName.isBlank()) newName = store.nameAt(idx);
 
+        double newMarks = store.marksAt(idx);
         String marksInput = readLineAllowEmpty("New marks: ");
         if (!marksInput.isBlank()) {
             try {
-                double newMarks = Double.parseDouble(marksInput);
-                s.setMarks(newMarks);
+                double parsed = Double.parseDouble(marksInput);
+                if (Double.isFinite(parsed)) newMarks = parsed;
+                else System.out.println("Invalid marks input. Marks not updated.");
             } catch (NumberFormatException e) {
                 System.out.println("Invalid marks input. Marks not updated.");
             }
         }
 
-        System.out.println("Record updated: " + s);
+        if (!persistPut(id, newName, newMarks)) return;
+        store.setName(idx, newName);
+        if (newMarks != store.marksAt(idx)) store.setMarks(idx, newMarks);
+        snapshotIfDue();
+        System.out.println("Record updated: " + store.get(idx));
     }
 
     private static void deleteStudent() {
         System.out.println("--- Delete Student ---");
-        int id = readInt("Enter Student ID to delete: ");
-        Optional<Integer> idxOpt = findStudentIndexById(id);
-        if (idxOpt.isEmpty()) {
+        int id = readStudentId("Enter Student ID to delete: ");
+        int idx = findStudentIndexById(id);
+        if (idx < 0) {
             System.out.println("Student with ID " + id + " not found.");
             return;
         }
-        Student s = students.remove(idxOpt.get().intValue());
+        if (!persistDelete(id)) return;
+        Student s = store.removeAt(idx);
+        snapshotIfDue();
         System.out.println("Deleted: " + s);
     }
 
     private static void viewStudentById() {
         System.out.println("--- View Student By ID ---");
-        int id = readInt("Enter Student ID: ");
-        Optional<Integer> idxOpt = findStudentIndexById(id);
-        if (idxOpt.isEmpty()) {
+        int id = readStudentId("Enter Student ID: ");
+        int idx = findStudentIndexById(id);
+        if (idx < 0) {
             System.out.println("Student with ID " + id + " not found.");
             return;
         }
-        System.out.println(students.get(idxOpt.get()));
+        System.out.println(store.get(idx));
     }
 
-    // Helper methods
-    private static Optional<Integer> findStudentIndexById(int id) {
-        for (int i = 0; i < students.size(); i++) {
-            if (students.get(i).getId() == id) return Optional.of(i);
+    private static void marksReport() {
+        System.out.println("--- Marks Report ---");
+        if (store.isEmpty()) {
+            System.out.println("No student records found.");
+            return;
+        }
+        System.out.printf("Students: %d | Mean: %.2f | Median: %.2f | 90th percentile: %.2f%n",
+                store.size(), MarksAnalytics.mean(store),
+                MarksAnalytics.percentile(store, 50), MarksAnalytics.percentile(store, 90));
+
+        int[] bins = MarksAnalytics.histogram(store, 0, 100, 10);
+        for (int b = 0; b < bins.length; b++) {
+            System.out.printf("%3d-%-3d | %d%n", b * 10, b == bins.length - 1 ? 100 : b * 10 + 9, bins[b]);
+        }
+
+        System.out.println("Top 5:");
+        int[] top = MarksAnalytics.topK(store, 5);
+        for (int i = 0; i < top.length; i++) {
+            System.out.println((i + 1) + ". " + store.get(top[i]));
+        }
+
+        String idInput = readLineAllowEmpty("Rank of student ID (blank to skip): ");
+        if (!idInput.isBlank()) {
+            try {
+                int rank = MarksAnalytics.rankOf(store, Integer.parseInt(idInput));
+                System.out.println(rank < 0 ? "Student not found." : "Rank: " + rank + " of " + store.size());
+            } catch (NumberFormatException e) {
+                System.out.println("Please enter a valid integer.");
+            }
+        }
+    }
+
+    private static void leaderboard() {
+        System.out.println("--- Leaderboard ---");
+        if (store.isEmpty()) {
+            System.out.println("No student records found.");
+            return;
+        }
+        int n = readInt("How many top students: ");
+        int[] top = MarksAnalytics.topK(store, n);
+        for (int i = 0; i < top.length; i++) {
+            System.out.println((i + 1) + ". " + store.get(top[i]));
+        }
+
+        String minInput = readLineAllowEmpty("Show marks from (blank to skip): ");
+        if (minInput.isBlank()) return;
+        try {
+            double min = Double.parseDouble(minInput);
+            double max = readDouble("Show marks up to: ");
+            int[] range = MarksAnalytics.between(store, min, max, 0, Integer.MAX_VALUE);
+            if (range.length == 0) System.out.println("No students in that range.");
+            for (int position : range) System.out.println(store.get(position));
+        } catch (NumberFormatException e) {
+            System.out.println("Please enter a valid number.");
         }
-        return Optional.empty();
+    }
+
+    private static void importExport() {
+        System.out.println("--- Import / Export ---");
+        System.out.println("1. Import CSV (id,name,marks)");
+        System.out.println("2. Import binary");
+        System.out.println("3. Export CSV");
+        System.out.println("4. Export binary");
+        int option = readInt("Enter your choice: ");
+        if (option < 1 || option > 4) {
+            System.out.println("Invalid choice.");
+            return;
+        }
+        Path file = Paths.get(readNonEmptyString("File path: "));
+        long start = System.nanoTime();
+        try {
+            if (option <= 2) {
+                Path rejects = Paths.get(file + ".rejects");
+                BulkTransfer.Result result = option == 1
+                        ? BulkTransfer.importCsv(file, rejects, store, journal)
+                        : BulkTransfer.importBinary(file, rejects, store, journal);
+                System.out.println("Import finished: " + result + (result.rejected > 0 ? " (see " + rejects + ")" : ""));
+            } else {
+                long rows = option == 3 ? BulkTransfer.exportCsv(file, store) : BulkTransfer.exportBinary(file, store);
+                System.out.println("Exported " + rows + " student record(s).");
+            }
+            System.out.printf("Took %.2f s%n", (System.nanoTime() - start) / 1e9);
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+
+    // Usage: java Student_Management_System_task2.java --bench [sizes, e.g. 1000,100000,10000000]
+    private static void runBenchmarks(String[] args) {
+        for (int size : Bench.sizes(args, 1)) {
+            store.clear();
+            for (int i = 0; i < size; i++) store.add(i, "Student " + i, i % 101);
+            java.util.Random random = new java.util.Random(42);
+            int[] keys = new int[1024];
+            for (int i = 0; i < keys.length; i++) keys[i] = random.nextInt(size);
+            Bench.run("findStudentIndexById hit", size, 1_000_000,
+                    i -> Bench.sink += findStudentIndexById(keys[i & 1023]));
+            Bench.run("findStudentIndexById miss", size, 1_000_000,
+                    i -> Bench.sink += findStudentIndexById(-1 - i));
+            int ops = Math.max(20, Bench.opsFor(size) / 10);
+            Bench.run("mean", size, ops, i -> Bench.sink += (long) MarksAnalytics.mean(store));
+            Bench.run("percentile 90", size, ops, i -> Bench.sink += (long) MarksAnalytics.percentile(store, 90));
+            Bench.run("histogram", size, ops, i -> Bench.sink += MarksAnalytics.histogram(store, 0, 100, 10)[5]);
+            Bench.run("topK 100", size, 200_000, i -> Bench.sink += MarksAnalytics.topK(store, 100)[0]);
+            Bench.run("setMarks (re-rank)", size, 200_000,
+                    i -> store.setMarks(store.positionOf(keys[i & 1023]), (i * 7) % 101));
+            Bench.run("rankOf", size, 200_000, i -> Bench.sink += MarksAnalytics.rankOf(store, keys[i & 1023]));
+            benchService(size, keys);
+            benchJournal(size);
+        }
+        store.clear();
+    }
+
+    /*
+     * Writes size students (with some updates and deletes) through the journal with a
+     * threshold low enough that the run snapshots several times, then recovers into a
+     * fresh store, reports the recovery time and checks that every record survived.
+     */
+    private static void benchJournal(int size) {
+        Path dir = null;
+        try {
+            dir = Files.createTempDirectory("students-bench");
+            StudentStore written = new StudentStore();
+            long start = System.nanoTime();
+            try (StudentJournal journal = StudentJournal.open(dir, written, Math.max(1 << 12, size * 8L))) {
+                long seq = 0;
+                for (int i = 0; i < size; i++) {
+                    seq = journal.logPut(i, "Student " + i, i % 101);
+                    written.add(i, "Student " + i, i % 101);
+                    if (i % 10 == 9) {
+                        seq = journal.logPut(i - 5, "Renamed " + i, 100);
+                        int position = written.positionOf(i - 5);
+                        written.setName(position, "Renamed " + i);
+                        written.setMarks(position, 100);
+                        seq = journal.logDelete(i - 1);
+                        written.removeAt(written.positionOf(i - 1));
+                    }
+                    if (i % 1024 == 1023 || i == size - 1) {
+                        journal.sync(seq);
+                        journal.maybeSnapshot();
+                    }
+                }
+            }
+            long logged = System.nanoTime() - start;
+            StudentStore recovered = new StudentStore();
+            start = System.nanoTime();
+            StudentJournal.open(dir, recovered).close();
+            long recovery = System.nanoTime() - start;
+            if (recovered.size() != written.size()) {
+                throw new IllegalStateException("Recovered " + recovered.size() + " of " + written.size() + " students");
+            }
+            for (int i = 0; i < written.size(); i++) {
+                int position = recovered.positionOf(written.ids[i]);
+                if (position < 0 || !recovered.nameAt(position).equals(written.nameAt(i))
+                        || Double.compare(recovered.marksAt(position), written.marksAt(i)) != 0) {
+                    throw new IllegalStateException("Student " + written.ids[i] + " differs after recovery");
+                }
+            }
+            System.out.printf("%-26s size=%-9d logged in %7.1f ms, recovered and verified in %7.1f ms%n",
+                    "journal restart", size, logged / 1e6, recovery / 1e6);
+        } catch (IOException e) {
+            throw new java.io.UncheckedIOException(e);
+        } finally {
+            if (dir != null) deleteJournalFiles(dir);
+        }
+    }
+
+    private static void deleteJournalFiles(Path dir) {
+        try {
+            Files.deleteIfExists(dir.resolve(StudentJournal.WAL_FILE));
+            Files.deleteIfExists(dir.resolve(StudentJournal.SNAPSHOT_FILE));
+            Files.deleteIfExists(dir);
+        } catch (IOException e) {
+            System.out.println("Could not remove " + dir + ": " + e.getMessage());
+        }
+    }
+
+    // 95% find / 5% update through StudentService at increasing client counts, one request thread per client
+    private static void benchService(int size, int[] keys) {
+        StudentService service = new StudentService(store, null);
+        int maxThreads = Runtime.getRuntime().availableProcessors() * 2;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            LongAdder ops = new LongAdder();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+            ExecutorService pool = StudentService.newRequestExecutor();
+            for (int t = 0; t < threads; t++) {
+                int seed = t;
+                pool.execute(() -> {
+                    java.util.Random random = new java.util.Random(seed);
+                    long done = 0;
+                    try {
+                        while (System.nanoTime() < deadline) {
+                            int id = keys[random.nextInt(keys.length)];
+                            if (random.nextInt(100) < 95) {
+                                Bench.sink += service.find(id).isPresent() ? 1 : 0;
+                            } else {
+                                service.update(id, "Student " + id, random.nextInt(101));
+                            }
+                            done++;
+                        }
+                    } catch (IOException e) {
+                        throw new java.io.UncheckedIOException(e);
+                    }
+                    ops.add(done);
+                });
+            }
+            pool.shutdown();
+            try {
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            System.out.printf("%-26s size=%-9d threads=%-3d %13d ops/s%n", "service 95% read", size, threads, ops.sum());
+        }
+    }
+
+    // Benchmark harness, kept byte-identical in every app of this repository since each app compiles on its own
+    static final class Bench {
+        private static final com.sun.management.ThreadMXBean THREADS =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        static volatile long sink; // keeps benchmarked results alive
+        static java.io.PrintStream report = System.out; // results go here, so an app may silence System.out
+
+        /*
+         * Warm-up, then throughput, latency percentiles and bytes allocated per op.
+         * Ops that take under about 10us are timed in batches so the clock reads do not
+         * swamp them; their percentiles are of per-batch mean latency, which hides the
+         * tail, and are labelled "batch-mean". Slower ops are timed one at a time ("per-op").
+         */
+        static void run(String name, int size, int ops, IntConsumer op) {
+            int warmup = Math.min(ops, 50_000), half = warmup / 2;
+            for (int i = 0; i < half; i++) op.accept(i);
+            long warmupStart = System.nanoTime();
+            for (int i = half; i < warmup; i++) op.accept(i);
+            long estimate = Math.max(1, (System.nanoTime() - warmupStart) / Math.max(1, warmup - half));
+            int batch = (int) Math.max(1, Math.min(Math.max(1, ops / 100), 10_000 / estimate));
+            int batches = (ops + batch - 1) / batch;
+            double[] latencies = new double[batches];
+            long allocated = THREADS.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            for (int b = 0, i = 0; b < batches; b++) {
+                int end = Math.min(ops, i + batch), count = end - i;
+                long t = System.nanoTime();
+                for (; i < end; i++) op.accept(i);
+                latencies[b] = (double) (System.nanoTime() - t) / count;
+            }
+            long elapsed = System.nanoTime() - start;
+            allocated = THREADS.getCurrentThreadAllocatedBytes() - allocated;
+            Arrays.sort(latencies);
+            report.printf("%-26s size=%-9d %13.0f ops/s  %-10s p50=%8.0fns  p99=%9.0fns  p99.9=%10.0fns  %9.1f B/op%n",
+                    name, size, ops * 1e9 / elapsed, batch > 1 ? "batch-mean" : "per-op", latencies[batches / 2],
+                    latencies[(int) (batches * 0.99)], latencies[(int) (batches * 0.999)], (double) allocated / ops);
+        }
+
+        // Operation count for an O(size) operation, so each benchmark runs in about a second
+        static int opsFor(int size) {
+            return (int) Math.max(200, Math.min(200_000, 200_000_000L / size));
+        }
+
+        // Comma-separated sizes from args[at], or the defaults
+        static int[] sizes(String[] args, int at) {
+            if (args.length <= at) return new int[] { 1_000, 100_000, 1_000_000 };
+            return Arrays.stream(args[at].split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+        }
+    }
+
+    // Helper methods
+    // Position of the student in the store, or -1 (O(1) through the ID index)
+    private static int findStudentIndexById(int id) {
+        return store.positionOf(id);
     }
 
     private static int readInt(String prompt) {
@@ -157,15 +1778,26 @@ public class StudentManagementSystem {
         }
     }
 
+    // Like readInt, but refuses the one int value the ID index reserves
+    private static int readStudentId(String prompt) {
+        while (true) {
+            int id = readInt(prompt);
+            if (IdIndex.isValidId(id)) return id;
+            System.out.println("Student ID " + id + " is not supported. Please enter another ID.");
+        }
+    }
+
     private static double readDouble(String prompt) {
         while (true) {
             System.out.print(prompt);
             String input = sc.nextLine().trim();
             try {
-                return Double.parseDouble(input);
+                double value = Double.parseDouble(input);
+                if (Double.isFinite(value)) return value;
             } catch (NumberFormatException e) {
-                System.out.println("Please enter a valid number.");
+                // fall through to the prompt below
             }
+            System.out.println("Please enter a valid number.");
         }
     }
 
@@ -178,6 +1810,15 @@ public class StudentManagementSystem {
         }
     }
 
+    // The journal stores a name's length in 16 bits, so overlong names are refused as they are typed
+    private static String readName(String prompt) {
+        while (true) {
+            String s = readNonEmptyString(prompt);
+            if (s.length() <= MAX_NAME_LENGTH) return s;
+            System.out.println("Name is too long (at most " + MAX_NAME_LENGTH + " characters).");
+        }
+    }
+
     private static String readLineAllowEmpty(String prompt) {
         System.out.print(prompt);
         return sc.nextLine().trim();